@@ -0,0 +1,75 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * This class finds the documents in which all of a set of keywords occur, by
+ * intersecting their postings in document order. The lists are walked from the
+ * rarest keyword: each of its documents is looked for in the other lists by
+ * galloping, and when a list has no such document, the rarest list gallops in
+ * turn to the document found there. Intersecting a list of n documents with one
+ * of m documents, n much smaller than m, so takes O(n log(m / n)) time, however
+ * common the second keyword is.
+ *
+ * Documents are ranked on the sum of the frequencies of the keywords in them,
+ * highest first, ties broken in favor of the document indexed first.
+ *
+ */
+public final class AndSearch {
+
+	private AndSearch() {
+	}
+
+	/**
+	 * Finds the documents that hold all the keywords.
+	 *
+	 * @param lists
+	 *            Postings of the keywords, in document order
+	 * @param k
+	 *            Maximum number of documents
+	 * @return Ids of the documents, highest combined frequency first, or an empty
+	 *         array if there are none
+	 */
+	static int[] top(DocPostings[] lists, int k) {
+
+		lists = lists.clone();
+		Arrays.sort(lists, new Comparator<DocPostings>() {
+			public int compare(DocPostings a, DocPostings b) {
+				return a.size() - b.size();
+			}
+		});
+
+		int n = lists.length;
+		int[] at = new int[n];
+		RankedSearch.TopScores top = new RankedSearch.TopScores(k);
+
+		DocPostings rarest = lists[0];
+		while (at[0] < rarest.size()) {
+
+			int doc = rarest.docId(at[0]);
+			int sum = rarest.frequency(at[0]);
+			boolean all = true;
+
+			for (int i = 1; i < n; i++) {
+				at[i] = lists[i].advance(at[i], doc);
+				if (at[i] == lists[i].size()) {
+					return top.docIds();
+				}
+				int found = lists[i].docId(at[i]);
+				if (found != doc) {
+					// no document before found can be in all the lists
+					at[0] = rarest.advance(at[0], found);
+					all = false;
+					break;
+				}
+				sum += lists[i].frequency(at[i]);
+			}
+
+			if (all) {
+				top.offer(doc, sum);
+				at[0]++;
+			}
+		}
+		return top.docIds();
+	}
+}
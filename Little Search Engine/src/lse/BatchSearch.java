@@ -0,0 +1,182 @@
+package lse;
+
+import java.io.FileNotFoundException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class evaluates a batch of "or" queries on one snapshot of the index.
+ * The same query is only evaluated once, and each keyword or pattern in the
+ * batch is looked up, or expanded, only once, however many queries hold it.
+ * The queries are then sorted on their first keyword, so that queries that share
+ * it are next to one another and read the same postings while they are
+ * still in the processor's caches, and split in runs that are merged on
+ * several threads, each query with the same TopKMerge as topKSearch.
+ *
+ */
+final class BatchSearch {
+
+	/**
+	 * Number of runs of queries per thread, so that threads that finish early
+	 * can take the runs of the others.
+	 */
+	private static final int RUNS_PER_THREAD = 4;
+
+	private BatchSearch() {
+	}
+
+	/**
+	 * Evaluates a batch of queries.
+	 *
+	 * @param snapshot
+	 *            Version of the index searched
+	 * @param queries
+	 *            Queries
+	 * @param maxExpansions
+	 *            Maximum number of keywords a pattern expands to
+	 * @param pool
+	 *            Threads on which queries are merged
+	 * @param parallelism
+	 *            Number of threads of the pool to use
+	 * @return Result of each query, in the order of the queries, null for a
+	 *         query with no matches
+	 */
+	static ArrayList<ArrayList<String>> search(final IndexSnapshot snapshot, List<Query> queries, int maxExpansions,
+			ExecutorService pool, int parallelism) {
+
+		// each distinct query once
+		HashMap<Query, Integer> distinct = new HashMap<Query, Integer>();
+		final ArrayList<Query> unique = new ArrayList<Query>();
+		int[] of = new int[queries.size()];
+		for (int i = 0; i < of.length; i++) {
+			Query query = queries.get(i);
+			Integer u = distinct.get(query);
+			if (u == null) {
+				u = unique.size();
+				distinct.put(query, u);
+				unique.add(query);
+			}
+			of[i] = u;
+		}
+
+		// each keyword and pattern once, keywords numbered in the order they are
+		// first seen
+		HashMap<String, List<String>> expansions = new HashMap<String, List<String>>();
+		HashMap<String, Integer> keywordIds = new HashMap<String, Integer>();
+		final ArrayList<Postings> postings = new ArrayList<Postings>();
+		final int[][] keywords = new int[unique.size()][];
+		ArrayList<String> expanded = new ArrayList<String>();
+		for (int u = 0; u < keywords.length; u++) {
+
+			expanded.clear();
+			for (String keyword : unique.get(u).keywords()) {
+				if (TermDictionary.isPattern(keyword)) {
+					List<String> terms = expansions.get(keyword);
+					if (terms == null) {
+						terms = snapshot.expand(keyword, maxExpansions);
+						expansions.put(keyword, terms);
+					}
+					expanded.addAll(terms);
+				} else {
+					expanded.add(keyword);
+				}
+			}
+
+			keywords[u] = new int[expanded.size()];
+			for (int i = 0; i < keywords[u].length; i++) {
+				String keyword = expanded.get(i);
+				Integer id = keywordIds.get(keyword);
+				if (id == null) {
+					id = postings.size();
+					keywordIds.put(keyword, id);
+					postings.add(keyword == null ? null : snapshot.postings(keyword));
+				}
+				keywords[u][i] = id;
+			}
+		}
+
+		// queries that share their first keyword next to one another
+		long[] sorted = new long[unique.size()];
+		for (int u = 0; u < sorted.length; u++) {
+			long first = keywords[u].length == 0 ? 0 : keywords[u][0] + 1;
+			sorted[u] = first << 32 | u;
+		}
+		Arrays.sort(sorted);
+		final int[] order = new int[sorted.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = (int) sorted[i];
+		}
+
+		final ArrayList<ArrayList<String>> results = new ArrayList<ArrayList<String>>(
+				Collections.<ArrayList<String>>nCopies(unique.size(), null));
+		int runs = Math.min(order.length, Math.max(1, parallelism * RUNS_PER_THREAD));
+		if (parallelism <= 1 || runs <= 1) {
+
+			merge(snapshot, unique, keywords, postings, order, 0, order.length, results);
+
+		} else {
+
+			ArrayList<Future<Void>> merged = new ArrayList<Future<Void>>(runs);
+			for (int r = 0; r < runs; r++) {
+				final int from = (int) ((long) order.length * r / runs);
+				final int to = (int) ((long) order.length * (r + 1) / runs);
+				merged.add(pool.submit(new Callable<Void>() {
+					public Void call() {
+						merge(snapshot, unique, keywords, postings, order, from, to, results);
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> f : merged) {
+				try {
+					LittleSearchEngine.await(f);
+				} catch (FileNotFoundException e) {
+					// the postings are already read
+					throw new IllegalStateException(e);
+				}
+			}
+		}
+
+		// in the order of the queries, a copy for each repeat
+		ArrayList<ArrayList<String>> answers = new ArrayList<ArrayList<String>>(of.length);
+		boolean[] given = new boolean[unique.size()];
+		for (int u : of) {
+			ArrayList<String> result = results.get(u);
+			if (given[u] && result != null) {
+				result = new ArrayList<String>(result);
+			}
+			given[u] = true;
+			answers.add(result);
+		}
+		return answers;
+	}
+
+	// helper, merges the postings of a run of queries
+	private static void merge(IndexSnapshot snapshot, ArrayList<Query> unique, int[][] keywords,
+			ArrayList<Postings> postings, int[] order, int from, int to, ArrayList<ArrayList<String>> results) {
+
+		// documents found by the merges, cleared after each one
+		BitSet emitted = new BitSet();
+
+		for (int i = from; i < to; i++) {
+
+			int u = order[i];
+			PostingsIterator[] lists = new PostingsIterator[keywords[u].length];
+			boolean found = false;
+			for (int j = 0; j < lists.length; j++) {
+				Postings p = postings.get(keywords[u][j]);
+				if (p != null) {
+					lists[j] = snapshot.iterator(p);
+					found = true;
+				}
+			}
+			if (found) {
+				int[] docIds = new TopKMerge(lists, emitted).top(unique.get(u).k());
+				results.set(u, docIds.length == 0 ? null : snapshot.names(docIds));
+				for (int docId : docIds) {
+					emitted.clear(docId);
+				}
+			}
+		}
+	}
+}
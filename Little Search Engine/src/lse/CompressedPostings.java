@@ -0,0 +1,161 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * This class encodes postings in a compact array of bytes. Postings are grouped
+ * by frequency, highest frequency first, and each group is written as:
+ *
+ * <pre>
+ * frequency, or the drop in frequency from the previous group
+ * number of postings in the group
+ * document ids, each one as the difference with the previous one
+ * </pre>
+ *
+ * All numbers are varints (7 bits per byte, low bits first), and the document id
+ * differences are zigzag encoded, so they may be negative. Postings within a
+ * group are normally in ascending order of document ids, so differences are
+ * small and mostly fit in one byte.
+ *
+ * Postings are decoded by an iterator, in the same order they were encoded, so
+ * the highest frequencies can be read without decoding the rest of the list.
+ *
+ */
+public final class CompressedPostings {
+
+	private CompressedPostings() {
+	}
+
+	/**
+	 * Encodes postings.
+	 *
+	 * @param docIds
+	 *            Document ids
+	 * @param frequencies
+	 *            Frequencies, in DESCENDING order
+	 * @param size
+	 *            Number of postings
+	 * @return Encoded postings
+	 */
+	public static byte[] encode(int[] docIds, int[] frequencies, int size) {
+		return encode(docIds, frequencies, 0, size);
+	}
+
+	/**
+	 * Encodes part of the postings, such as the tail that follows the head of
+	 * Postings.
+	 *
+	 * @param docIds
+	 *            Document ids
+	 * @param frequencies
+	 *            Frequencies, in DESCENDING order
+	 * @param from
+	 *            Rank of the first posting to encode
+	 * @param to
+	 *            Rank after the last posting to encode
+	 * @return Encoded postings
+	 */
+	public static byte[] encode(int[] docIds, int[] frequencies, int from, int to) {
+
+		byte[] out = new byte[16 + (to - from) * 2];
+		int at = 0;
+		int i = from;
+		int previousFrequency = 0;
+
+		while (i < to) {
+
+			int frequency = frequencies[i];
+			int end = i + 1;
+			while (end < to && frequencies[end] == frequency) {
+				end++;
+			}
+
+			if (out.length - at < 10 + (end - i) * 5) {
+				out = Arrays.copyOf(out, Math.max(out.length * 2, at + 10 + (end - i) * 5));
+			}
+
+			at = writeVarint(out, at, i == from ? frequency : previousFrequency - frequency);
+			at = writeVarint(out, at, end - i);
+
+			int previousDocId = 0;
+			for (; i < end; i++) {
+				int delta = docIds[i] - previousDocId;
+				at = writeVarint(out, at, (delta << 1) ^ (delta >> 31));
+				previousDocId = docIds[i];
+			}
+			previousFrequency = frequency;
+		}
+
+		return Arrays.copyOf(out, at);
+	}
+
+	/**
+	 * Returns an iterator over encoded postings.
+	 *
+	 * @param data
+	 *            Encoded postings
+	 * @return Iterator over the postings, in DESCENDING order of frequencies
+	 */
+	public static PostingsIterator iterator(final byte[] data) {
+
+		return new PostingsIterator() {
+
+			// offset of the next byte to decode
+			int at = 0;
+
+			// postings left in the current group
+			int left = 0;
+
+			int docId;
+			int frequency;
+
+			public boolean next() {
+
+				if (left == 0) {
+					if (at == data.length) {
+						return false;
+					}
+					int f = readVarint();
+					frequency = frequency == 0 ? f : frequency - f;
+					left = readVarint();
+					docId = 0;
+				}
+
+				int z = readVarint();
+				docId += (z >>> 1) ^ -(z & 1);
+				left--;
+				return true;
+			}
+
+			public int docId() {
+				return docId;
+			}
+
+			public int frequency() {
+				return frequency;
+			}
+
+			private int readVarint() {
+				int value = 0;
+				for (int shift = 0;; shift += 7) {
+					byte b = data[at++];
+					value |= (b & 0x7f) << shift;
+					if (b >= 0) {
+						return value;
+					}
+				}
+			}
+		};
+	}
+
+	// helper for encode, writes a varint and returns the offset after it
+	static int writeVarint(byte[] out, int at, int value) {
+
+		while ((value & ~0x7f) != 0) {
+			out[at++] = (byte) ((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out[at++] = (byte) value;
+		return at;
+	}
+}
@@ -0,0 +1,210 @@
+package lse;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+
+/**
+ * This class remembers the keywords of the documents scanned by one indexing
+ * run, by a hash of their bytes, so that a document with the same contents as
+ * one already scanned, under another name, is not scanned again: its keywords
+ * are copied, with Occurrences for its own name. The hash is 128 bits wide, two
+ * 64 bit hashes of the bytes read 8 at a time, and only finds the document: the
+ * bytes of each document kept are kept too, and compared with those of the new
+ * one, so keywords are only ever copied between documents with the same bytes.
+ *
+ * Keywords and bytes are kept for the documents scanned last, up to a number of
+ * Occurrences, every BYTES_PER_OCCURRENCE bytes counting as one, so memory stays
+ * bounded on a large corpus. The cache is thread
+ * safe, and shared by all the threads that scan documents in a run.
+ *
+ */
+final class ContentCache {
+
+	/**
+	 * Default number of Occurrences kept.
+	 */
+	static final int DEFAULT_SIZE = 1 << 20;
+
+	/**
+	 * Number of bytes of a document kept that count as one Occurrence, about the
+	 * memory an Occurrence takes with its entry in the keywords of a document.
+	 */
+	static final int BYTES_PER_OCCURRENCE = 64;
+
+	/**
+	 * Hash of the contents of a document, with the bytes they were hashed from.
+	 * Keys with the same hash are only equal if their bytes are the same.
+	 */
+	static final class Key {
+
+		private final long h1;
+		private final long h2;
+		private final byte[] bytes;
+		private final int length;
+
+		private Key(long h1, long h2, byte[] bytes, int length) {
+			this.h1 = h1;
+			this.h2 = h2;
+			this.bytes = bytes;
+			this.length = length;
+		}
+
+		public boolean equals(Object o) {
+
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			if (h1 != other.h1 || h2 != other.h2 || length != other.length) {
+				return false;
+			}
+			for (int i = 0; i < length; i++) {
+				if (bytes[i] != other.bytes[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		public int hashCode() {
+			return (int) h1;
+		}
+	}
+
+	/**
+	 * Maximum number of Occurrences kept.
+	 */
+	private final int size;
+
+	/**
+	 * Keywords of the documents scanned, by the hash of their contents, least
+	 * recently used first.
+	 */
+	private final LinkedHashMap<Key, HashMap<String, Occurrence>> scanned = new LinkedHashMap<Key, HashMap<String, Occurrence>>(
+			16, 0.75f, true);
+
+	/**
+	 * Number of Occurrences kept.
+	 */
+	private long held;
+
+	/**
+	 * Number of documents whose keywords were copied.
+	 */
+	private int hits;
+
+	/**
+	 * Initializes an empty cache.
+	 *
+	 * @param size
+	 *            Maximum number of Occurrences kept
+	 */
+	ContentCache(int size) {
+		this.size = size;
+	}
+
+	/**
+	 * Hashes the contents of a document. The key refers to the bytes, which must
+	 * not be changed while it is used; put keeps a copy of them.
+	 *
+	 * @param bytes
+	 *            Bytes of the document
+	 * @param length
+	 *            Number of bytes used
+	 * @return Hash
+	 */
+	static Key key(byte[] bytes, int length) {
+
+		long h1 = 0x9e3779b97f4a7c15L;
+		long h2 = 0xc2b2ae3d27d4eb4fL ^ length;
+		ByteBuffer in = ByteBuffer.wrap(bytes, 0, length).order(ByteOrder.LITTLE_ENDIAN);
+		int i = 0;
+		for (; i + 8 <= length; i += 8) {
+			long v = in.getLong(i);
+			h1 = Long.rotateLeft(h1 ^ v * 0x87c37b91114253d5L, 31) * 0x4cf5ad432745937fL;
+			h2 = Long.rotateLeft(h2 + v, 27) * 0x52dce729L + h1;
+		}
+		for (; i < length; i++) {
+			h1 = (h1 ^ bytes[i]) * 0x100000001b3L;
+			h2 = Long.rotateLeft(h2 ^ bytes[i], 13) * 0x9e3779b97f4a7c15L;
+		}
+		return new Key(mix(h1 ^ h2), mix(h2 + h1), bytes, length);
+	}
+
+	/**
+	 * Returns the keywords of a document with the given contents, if one was
+	 * scanned.
+	 *
+	 * @param key
+	 *            Hash of the contents
+	 * @param docFile
+	 *            Name of the document the keywords are for
+	 * @return Keywords, each with a new Occurrence for docFile, or null if no
+	 *         document with the same bytes is kept
+	 */
+	synchronized HashMap<String, Occurrence> get(Key key, String docFile) {
+
+		HashMap<String, Occurrence> kws = scanned.get(key);
+		if (kws == null) {
+			return null;
+		}
+		hits++;
+
+		HashMap<String, Occurrence> copy = new HashMap<String, Occurrence>(kws.size() * 2, 0.75f);
+		for (Map.Entry<String, Occurrence> e : kws.entrySet()) {
+			Occurrence occ = e.getValue();
+			copy.put(e.getKey(), new Occurrence(docFile, occ.frequency, occ.positions));
+		}
+		return copy;
+	}
+
+	/**
+	 * Keeps the keywords and a copy of the bytes of a document that was scanned,
+	 * dropping those of the documents scanned longest ago if there are too many.
+	 *
+	 * @param key
+	 *            Hash of the contents
+	 * @param kws
+	 *            Keywords of the document, which must not be changed afterwards
+	 */
+	synchronized void put(Key key, HashMap<String, Occurrence> kws) {
+
+		if (weight(key, kws) > size || scanned.containsKey(key)) {
+			return;
+		}
+		key = new Key(key.h1, key.h2, Arrays.copyOf(key.bytes, key.length), key.length);
+		scanned.put(key, kws);
+		held += weight(key, kws);
+
+		Iterator<Map.Entry<Key, HashMap<String, Occurrence>>> oldest = scanned.entrySet().iterator();
+		while (held > size) {
+			Map.Entry<Key, HashMap<String, Occurrence>> e = oldest.next();
+			held -= weight(e.getKey(), e.getValue());
+			oldest.remove();
+		}
+	}
+
+	/**
+	 * Returns the number of documents whose keywords were copied instead of
+	 * scanned.
+	 *
+	 * @return Number of documents
+	 */
+	synchronized int hits() {
+		return hits;
+	}
+
+	// helper, the number of Occurrences a document kept counts for
+	private static long weight(Key key, HashMap<String, Occurrence> kws) {
+		return kws.size() + key.length / BYTES_PER_OCCURRENCE;
+	}
+
+	// helper for key, spreads the bits of a hash over all 64 bits
+	private static long mix(long h) {
+
+		h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+		h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return h ^ (h >>> 33);
+	}
+}
@@ -0,0 +1,199 @@
+package lse;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * This class writes a synthetic corpus: a number of document files, and a docs
+ * file listing them, one name per line, as makeIndex expects. Words are drawn
+ * from a made-up vocabulary with Zipf distributed frequencies, mixed with noise
+ * words, capitalized words and words with trailing punctuation. The same seed
+ * always gives the same corpus, so measurements can be repeated.
+ *
+ * Usage: java lse.CorpusGenerator directory documents vocabulary skew seed
+ *
+ */
+public class CorpusGenerator {
+
+	/**
+	 * Noise words mixed into documents, from noisewords.txt.
+	 */
+	private static final String[] NOISE = { "the", "and", "of", "to", "in", "was", "it", "that", "with", "for" };
+
+	/**
+	 * Punctuation that may trail a word.
+	 */
+	private static final String[] PUNCTUATION = { ".", ",", "?", ":", ";", "!" };
+
+	private final int documents;
+	private final String[] vocabulary;
+
+	/**
+	 * Cumulative Zipf probabilities of the vocabulary words, by rank.
+	 */
+	private final double[] cumulative;
+
+	private final long seed;
+
+	/**
+	 * Initializes a generator.
+	 *
+	 * @param documents
+	 *            Number of documents
+	 * @param vocabularySize
+	 *            Number of distinct keywords
+	 * @param skew
+	 *            Zipf exponent, 0 for uniform word frequencies, around 1 for
+	 *            natural language
+	 * @param seed
+	 *            Random seed
+	 */
+	public CorpusGenerator(int documents, int vocabularySize, double skew, long seed) {
+
+		this.documents = documents;
+		this.seed = seed;
+
+		Random random = new Random(seed);
+		HashSet<String> words = new HashSet<String>();
+		vocabulary = new String[vocabularySize];
+		for (int i = 0; i < vocabularySize; i++) {
+			String word;
+			do {
+				word = randomWord(random);
+			} while (!words.add(word));
+			vocabulary[i] = word;
+		}
+
+		cumulative = new double[vocabularySize];
+		double sum = 0;
+		for (int i = 0; i < vocabularySize; i++) {
+			sum += 1 / Math.pow(i + 1, skew);
+			cumulative[i] = sum;
+		}
+		for (int i = 0; i < vocabularySize; i++) {
+			cumulative[i] /= sum;
+		}
+	}
+
+	/**
+	 * Returns a vocabulary word.
+	 *
+	 * @param rank
+	 *            Rank of the word, 0 being the most frequent
+	 * @return Word, in lower case
+	 */
+	public String word(int rank) {
+		return vocabulary[rank];
+	}
+
+	/**
+	 * Returns the number of words in the vocabulary.
+	 *
+	 * @return Vocabulary size
+	 */
+	public int vocabularySize() {
+		return vocabulary.length;
+	}
+
+	/**
+	 * Writes the corpus.
+	 *
+	 * @param directory
+	 *            Directory to write the files in, created if needed
+	 * @param minWords
+	 *            Minimum number of words in a document
+	 * @param maxWords
+	 *            Maximum number of words in a document
+	 * @return Name of the docs file
+	 * @throws IOException
+	 *             If a file cannot be written
+	 */
+	public String write(Path directory, int minWords, int maxWords) throws IOException {
+
+		Files.createDirectories(directory);
+		Random random = new Random(seed + 1);
+
+		Path docsFile = directory.resolve("docs.txt");
+		BufferedWriter docs = Files.newBufferedWriter(docsFile, StandardCharsets.UTF_8);
+		try {
+			for (int d = 0; d < documents; d++) {
+				Path doc = directory.resolve("doc" + d + ".txt");
+				writeDocument(doc, minWords + random.nextInt(maxWords - minWords + 1), random);
+				docs.write(doc.toString());
+				docs.newLine();
+			}
+		} finally {
+			docs.close();
+		}
+		return docsFile.toString();
+	}
+
+	/**
+	 * Writes one document.
+	 *
+	 * @param doc
+	 *            Document file
+	 * @param words
+	 *            Number of words in the document
+	 * @param random
+	 *            Source of randomness
+	 * @throws IOException
+	 *             If the file cannot be written
+	 */
+	public void writeDocument(Path doc, int words, Random random) throws IOException {
+
+		BufferedWriter out = Files.newBufferedWriter(doc, StandardCharsets.UTF_8);
+		try {
+			for (int w = 0; w < words; w++) {
+				double r = random.nextDouble();
+				String word;
+				if (r < 0.3) {
+					word = NOISE[random.nextInt(NOISE.length)];
+				} else {
+					word = vocabulary[rank(random.nextDouble())];
+				}
+				if (r > 0.95) {
+					word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+				}
+				if (random.nextInt(10) == 0) {
+					word += PUNCTUATION[random.nextInt(PUNCTUATION.length)];
+				}
+				out.write(word);
+				out.write(w % 12 == 11 ? '\n' : ' ');
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	// helper, rank of the word drawn with probability p
+	private int rank(double p) {
+
+		int i = Arrays.binarySearch(cumulative, p);
+		return Math.min(i < 0 ? -i - 1 : i, cumulative.length - 1);
+	}
+
+	// helper, a word of 3 to 10 letters
+	private static String randomWord(Random random) {
+
+		char[] letters = new char[3 + random.nextInt(8)];
+		for (int i = 0; i < letters.length; i++) {
+			letters[i] = (char) ('a' + random.nextInt(26));
+		}
+		return new String(letters);
+	}
+
+	public static void main(String[] args) throws IOException {
+
+		if (args.length != 5) {
+			System.err.println("Usage: java lse.CorpusGenerator directory documents vocabulary skew seed");
+			System.exit(1);
+		}
+
+		CorpusGenerator generator = new CorpusGenerator(Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+				Double.parseDouble(args[3]), Long.parseLong(args[4]));
+		System.out.println(generator.write(Paths.get(args[0]), 100, 1000));
+	}
+}
@@ -0,0 +1,137 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * This class holds a copy of the postings of a keyword in ascending order of
+ * document ids, instead of descending order of frequencies. Lists in document
+ * order can be walked side by side, one document at a time, which is what
+ * ranked and "and" searches need. Instances are never changed once built.
+ *
+ */
+public class DocPostings {
+
+	/**
+	 * Document ids, in ascending order.
+	 */
+	private final int[] docIds;
+
+	/**
+	 * Frequencies, docIds[i] has frequencies[i].
+	 */
+	private final int[] frequencies;
+
+	/**
+	 * Copies postings into document order.
+	 *
+	 * @param postings
+	 *            Postings, in DESCENDING order of frequencies
+	 */
+	public DocPostings(Postings postings) {
+		this(postings, null);
+	}
+
+	/**
+	 * Copies postings into document order, leaving out removed documents.
+	 *
+	 * @param postings
+	 *            Postings, in DESCENDING order of frequencies
+	 * @param removed
+	 *            Ids of the documents to leave out, or null
+	 */
+	public DocPostings(Postings postings, BitSet removed) {
+
+		int size = 0;
+
+		// sort keys: the document id, then the position in the postings
+		long[] keys = new long[postings.size()];
+		int[] freqs = new int[postings.size()];
+		PostingsIterator it = postings.iterator();
+		for (int i = 0; it.next(); i++) {
+			if (removed == null || !removed.get(it.docId())) {
+				keys[size++] = ((long) it.docId() << 32) | i;
+				freqs[i] = it.frequency();
+			}
+		}
+		Arrays.sort(keys, 0, size);
+
+		docIds = new int[size];
+		frequencies = new int[size];
+		for (int i = 0; i < size; i++) {
+			docIds[i] = (int) (keys[i] >>> 32);
+			frequencies[i] = freqs[(int) keys[i]];
+		}
+	}
+
+	/**
+	 * Returns the number of postings.
+	 *
+	 * @return Number of postings
+	 */
+	public int size() {
+		return docIds.length;
+	}
+
+	/**
+	 * Returns the document id of a posting.
+	 *
+	 * @param i
+	 *            Position of the posting, in ascending order of document ids
+	 * @return Document id
+	 */
+	public int docId(int i) {
+		return docIds[i];
+	}
+
+	/**
+	 * Returns the frequency of a posting.
+	 *
+	 * @param i
+	 *            Position of the posting, in ascending order of document ids
+	 * @return Frequency of the keyword in the document
+	 */
+	public int frequency(int i) {
+		return frequencies[i];
+	}
+
+	/**
+	 * Finds the first posting at or after a position whose document id is at least
+	 * the target. The search gallops: it looks 1, 2, 4, ... postings ahead until it
+	 * passes the target, then binary searches the last step, so skipping n
+	 * postings takes O(log n) time.
+	 *
+	 * @param from
+	 *            Position to start from
+	 * @param target
+	 *            Document id to look for
+	 * @return Position of the first posting with a document id of at least target,
+	 *         or size() if there is none
+	 */
+	public int advance(int from, int target) {
+
+		int size = docIds.length;
+		if (from >= size || docIds[from] >= target) {
+			return from;
+		}
+
+		// docIds[low] < target
+		int low = from;
+		int step = 1;
+		while (low + step < size && docIds[low + step] < target) {
+			low += step;
+			step <<= 1;
+		}
+
+		int high = Math.min(low + step, size);
+		low++;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (docIds[middle] < target) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
@@ -0,0 +1,277 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * This class assigns int ids to document names. Ids are given out in the order
+ * in which documents are added, starting at 0, so postings can refer to
+ * documents by id instead of by name. The table also holds the length of each
+ * document, the number of keywords in it, which ranked searches need.
+ *
+ * A removed document keeps its id, marked as removed, until the table is
+ * compacted and the documents after it are given lower ids.
+ *
+ */
+public class DocumentTable {
+
+	/**
+	 * Document ids, by document name.
+	 */
+	private final HashMap<String, Integer> ids;
+
+	/**
+	 * Document names, by id.
+	 */
+	private String[] names;
+
+	/**
+	 * Document lengths, by id.
+	 */
+	private int[] lengths;
+
+	/**
+	 * Ids of the removed documents. The set is replaced, not changed, when a
+	 * document is removed, so sets handed out by removed() stay as they are.
+	 */
+	private BitSet removed;
+
+	/**
+	 * Number of removed documents.
+	 */
+	private int removedCount;
+
+	/**
+	 * Sum of the lengths of the documents that are not removed.
+	 */
+	private long totalLength;
+
+	/**
+	 * Number of documents in the table.
+	 */
+	private int size;
+
+	/**
+	 * Initializes this table to empty.
+	 */
+	public DocumentTable() {
+		ids = new HashMap<String, Integer>(100, 2.0f);
+		names = new String[16];
+		lengths = new int[16];
+		removed = new BitSet();
+		size = 0;
+	}
+
+	/**
+	 * Adds a document to the table, if it is not already in it. A document that
+	 * was removed is given a new id.
+	 *
+	 * @param name
+	 *            Document name
+	 * @return Id of the document
+	 */
+	public int add(String name) {
+
+		Integer id = ids.get(name);
+		if (id != null) {
+			return id;
+		}
+
+		if (size == names.length) {
+			names = Arrays.copyOf(names, size * 2);
+			lengths = Arrays.copyOf(lengths, size * 2);
+		}
+		names[size] = name;
+		ids.put(name, size);
+		return size++;
+	}
+
+	/**
+	 * Removes a document from the table. Its id stays taken until compact is
+	 * called.
+	 *
+	 * @param name
+	 *            Document name
+	 * @return Id the document had, or -1 if it is not in the table
+	 */
+	public int remove(String name) {
+
+		Integer id = ids.remove(name);
+		if (id == null) {
+			return -1;
+		}
+
+		BitSet next = (BitSet) removed.clone();
+		next.set(id);
+		removed = next;
+		removedCount++;
+		totalLength -= lengths[id];
+		return id;
+	}
+
+	/**
+	 * Returns whether a document id belongs to a removed document.
+	 *
+	 * @param id
+	 *            Document id
+	 * @return True if the document was removed
+	 */
+	public boolean isRemoved(int id) {
+		return removed.get(id);
+	}
+
+	/**
+	 * Returns the number of removed documents whose ids are still taken.
+	 *
+	 * @return Number of removed documents
+	 */
+	public int removedCount() {
+		return removedCount;
+	}
+
+	/**
+	 * Gives the documents that are not removed new ids, from 0 up, in the order
+	 * of their old ids, and frees the ids of the removed documents. New arrays
+	 * are allocated, so arrays handed out by names() and lengths() are left
+	 * alone.
+	 *
+	 * @return New id of each old id, -1 for a removed document
+	 */
+	public int[] compact() {
+
+		int[] newIds = new int[size];
+		String[] newNames = new String[Math.max(16, size - removedCount)];
+		int[] newLengths = new int[newNames.length];
+		int next = 0;
+		for (int id = 0; id < size; id++) {
+			if (removed.get(id)) {
+				newIds[id] = -1;
+			} else {
+				newIds[id] = next;
+				newNames[next] = names[id];
+				newLengths[next] = lengths[id];
+				ids.put(names[id], next);
+				next++;
+			}
+		}
+
+		names = newNames;
+		lengths = newLengths;
+		removed = new BitSet();
+		removedCount = 0;
+		size = next;
+		return newIds;
+	}
+
+	/**
+	 * Returns the id of a document.
+	 *
+	 * @param name
+	 *            Document name
+	 * @return Id of the document, or -1 if it is not in the table
+	 */
+	public int idOf(String name) {
+
+		Integer id = ids.get(name);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Returns the name of a document.
+	 *
+	 * @param id
+	 *            Document id
+	 * @return Document name
+	 */
+	public String name(int id) {
+		return names[id];
+	}
+
+	/**
+	 * Sets the length of a document.
+	 *
+	 * @param id
+	 *            Document id
+	 * @param length
+	 *            Number of keywords in the document
+	 */
+	public void setLength(int id, int length) {
+		if (!removed.get(id)) {
+			totalLength += length - lengths[id];
+		}
+		lengths[id] = length;
+	}
+
+	/**
+	 * Returns the length of a document.
+	 *
+	 * @param id
+	 *            Document id
+	 * @return Number of keywords in the document
+	 */
+	public int length(int id) {
+		return lengths[id];
+	}
+
+	/**
+	 * Returns the average length of the documents that are not removed.
+	 *
+	 * @return Average number of keywords in a document, 0 if there are none
+	 */
+	public double averageLength() {
+		return size == removedCount ? 0 : (double) totalLength / (size - removedCount);
+	}
+
+	/**
+	 * Returns the number of documents in the table, removed documents whose ids
+	 * are still taken included.
+	 *
+	 * @return Number of documents
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the array of document names, for snapshots. The table only writes
+	 * past the names it holds now, or to a new array, so the first size() entries
+	 * stay valid for as long as the caller keeps the array.
+	 *
+	 * @return Document names, by id
+	 */
+	String[] names() {
+		return names;
+	}
+
+	/**
+	 * Returns the array of document lengths, for snapshots, see names().
+	 *
+	 * @return Document lengths, by id
+	 */
+	int[] lengths() {
+		return lengths;
+	}
+
+	/**
+	 * Returns the set of removed document ids, for snapshots. The set is never
+	 * changed.
+	 *
+	 * @return Ids of the removed documents
+	 */
+	BitSet removed() {
+		return removed;
+	}
+
+	/**
+	 * Removes all documents from the table. New arrays are allocated, so arrays
+	 * handed out by names() and lengths() are left alone.
+	 */
+	public void clear() {
+		ids.clear();
+		names = new String[16];
+		lengths = new int[16];
+		removed = new BitSet();
+		removedCount = 0;
+		totalLength = 0;
+		size = 0;
+	}
+}
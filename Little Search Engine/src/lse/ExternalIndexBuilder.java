@@ -0,0 +1,330 @@
+package lse;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * This class builds an index file for a corpus whose index does not fit in
+ * memory, in the manner of SPIMI (single-pass in-memory indexing). Documents
+ * are scanned one after the other, and their postings are collected in memory
+ * until they take up the memory budget. The keywords collected are then sorted,
+ * and written to a run file with their postings, and the next documents start
+ * from an empty table. When all documents are scanned, the runs are merged into
+ * an IndexFile, reading each run from start to end only once.
+ *
+ * Run files hold terms in the order of the index file, each one being: term
+ * length, term bytes, number of postings, (document id, frequency)*, postings
+ * in DESCENDING order of frequencies. Runs hold documents in the order they
+ * were scanned, so merging the postings of a term by frequency, then by run,
+ * gives the same order as makeIndex. Keywords are merged with a heap of the
+ * runs, on their current term, and the postings of a keyword with a heap of
+ * the runs that hold it, on their current posting.
+ *
+ * Memory use is bounded by the budget, plus the tokenizer's table of the words
+ * seen, which is emptied at every spill and holds KeywordTokenizer.MAX_ENTRIES
+ * words at most, a read buffer per run, and eight bytes per distinct keyword
+ * for the directory of the index file. The index file holds no positions.
+ *
+ */
+public class ExternalIndexBuilder {
+
+	/**
+	 * Estimated heap used by a new keyword, besides its postings: the String, the
+	 * hash table entry, and an empty Postings.
+	 */
+	private static final int TERM_BYTES = 160;
+
+	/**
+	 * Estimated heap used by a posting, with room for the arrays to grow.
+	 */
+	private static final int POSTING_BYTES = 16;
+
+	/**
+	 * Default memory budget.
+	 */
+	public static final long DEFAULT_BUDGET = 64L << 20;
+
+	/**
+	 * Noise words.
+	 */
+	private final Set<String> noiseWords;
+
+	/**
+	 * Bytes of postings collected before they are spilled to a run.
+	 */
+	private final long budget;
+
+	/**
+	 * Directory of the run files.
+	 */
+	private final Path tempDirectory;
+
+	/**
+	 * Number of runs spilled by the last build.
+	 */
+	private int runs;
+
+	/**
+	 * Initializes a builder.
+	 *
+	 * @param noiseWords
+	 *            Noise words, in lower case
+	 * @param budget
+	 *            Estimated number of bytes of postings held in memory at most
+	 * @param tempDirectory
+	 *            Directory to write the run files in, or null for the default
+	 *            temporary directory
+	 */
+	public ExternalIndexBuilder(Set<String> noiseWords, long budget, Path tempDirectory) {
+
+		if (budget < 1) {
+			throw new IllegalArgumentException("budget must be positive: " + budget);
+		}
+		this.noiseWords = noiseWords;
+		this.budget = budget;
+		this.tempDirectory = tempDirectory;
+	}
+
+	/**
+	 * Builds the index file of the documents listed in a docs file.
+	 *
+	 * @param docsFile
+	 *            Name of file that has a list of all the document file names, one
+	 *            name per line
+	 * @param file
+	 *            Index file to write, replaced if it exists
+	 * @throws FileNotFoundException
+	 *             If there is a problem locating any of the input files on disk
+	 * @throws IOException
+	 *             If a file cannot be read or written
+	 */
+	public void build(String docsFile, Path file) throws IOException {
+
+		Path directory = tempDirectory == null ? Files.createTempDirectory("lse-runs")
+				: Files.createTempDirectory(tempDirectory, "lse-runs");
+		ArrayList<Path> runFiles = new ArrayList<Path>();
+
+		IndexFile.Writer out = new IndexFile.Writer(file);
+		try {
+			KeywordTokenizer tokenizer = new KeywordTokenizer(noiseWords);
+			HashMap<String, Postings> index = new HashMap<String, Postings>(1000, 2.0f);
+			long used = 0;
+
+			Scanner sc = new Scanner(new File(docsFile));
+			try {
+				while (sc.hasNext()) {
+
+					String docFile = sc.next();
+					HashMap<String, Occurrence> kws = tokenizer.loadKeywords(docFile);
+
+					int length = 0;
+					for (Occurrence occ : kws.values()) {
+						length += occ.frequency;
+					}
+					int docId = out.addDocument(docFile, length);
+
+					for (Map.Entry<String, Occurrence> kw : kws.entrySet()) {
+						Postings postings = index.get(kw.getKey());
+						if (postings == null) {
+							postings = new Postings();
+							index.put(kw.getKey(), postings);
+							used += TERM_BYTES + 2 * kw.getKey().length();
+						}
+						postings.append(docId, kw.getValue().frequency);
+						used += POSTING_BYTES;
+					}
+
+					if (used >= budget) {
+						runFiles.add(spill(index, directory, runFiles.size()));
+						index.clear();
+						tokenizer.clear();
+						used = 0;
+					}
+				}
+			} finally {
+				sc.close();
+			}
+
+			if (!index.isEmpty()) {
+				runFiles.add(spill(index, directory, runFiles.size()));
+				index = null;
+			}
+			runs = runFiles.size();
+
+			merge(runFiles, out);
+		} finally {
+			try {
+				out.close();
+			} finally {
+				for (Path run : runFiles) {
+					Files.deleteIfExists(run);
+				}
+				Files.deleteIfExists(directory);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of runs the last build spilled to disk.
+	 *
+	 * @return Number of runs
+	 */
+	public int runCount() {
+		return runs;
+	}
+
+	// helper for build, writes the keywords collected so far to a run file
+	private static Path spill(HashMap<String, Postings> index, Path directory, int number) throws IOException {
+
+		String[] terms = index.keySet().toArray(new String[index.size()]);
+		Arrays.sort(terms, new Comparator<String>() {
+			public int compare(String a, String b) {
+				return TermDictionary.compare(a, b);
+			}
+		});
+
+		Path run = directory.resolve("run" + number);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16));
+		try {
+			for (String term : terms) {
+				Postings postings = index.get(term);
+				postings.sort();
+
+				byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+				out.writeInt(postings.size());
+				PostingsIterator it = postings.iterator();
+				while (it.next()) {
+					out.writeInt(it.docId());
+					out.writeInt(it.frequency());
+				}
+			}
+		} finally {
+			out.close();
+		}
+		return run;
+	}
+
+	// helper for build, merges the runs into the index file
+	private static void merge(ArrayList<Path> runFiles, IndexFile.Writer out) throws IOException {
+
+		PriorityQueue<Run> heap = new PriorityQueue<Run>(Math.max(1, runFiles.size()), new Comparator<Run>() {
+			public int compare(Run a, Run b) {
+				int c = TermDictionary.compare(a.term, b.term);
+				return c != 0 ? c : a.number - b.number;
+			}
+		});
+
+		// highest frequency first, the earlier run on ties
+		PriorityQueue<Run> postings = new PriorityQueue<Run>(Math.max(1, runFiles.size()), new Comparator<Run>() {
+			public int compare(Run a, Run b) {
+				return a.frequency != b.frequency ? b.frequency - a.frequency : a.number - b.number;
+			}
+		});
+
+		ArrayList<Run> open = new ArrayList<Run>();
+		try {
+			for (int i = 0; i < runFiles.size(); i++) {
+				Run run = new Run(runFiles.get(i), i);
+				open.add(run);
+				if (run.nextTerm()) {
+					heap.add(run);
+				}
+			}
+
+			ArrayList<Run> holding = new ArrayList<Run>();
+			while (!heap.isEmpty()) {
+
+				// the runs that hold the smallest term, in run order
+				holding.clear();
+				String term = heap.peek().term;
+				int count = 0;
+				while (!heap.isEmpty() && heap.peek().term.equals(term)) {
+					Run run = heap.poll();
+					holding.add(run);
+					count += run.left;
+				}
+
+				out.startTerm(term, count);
+				for (Run run : holding) {
+					if (run.left > 0) {
+						postings.add(run);
+					}
+				}
+				while (!postings.isEmpty()) {
+					Run best = postings.poll();
+					out.addPosting(best.docId, best.frequency);
+					best.nextPosting();
+					if (best.left > 0) {
+						postings.add(best);
+					}
+				}
+				out.endTerm();
+
+				for (Run run : holding) {
+					if (run.nextTerm()) {
+						heap.add(run);
+					}
+				}
+			}
+		} finally {
+			for (Run run : open) {
+				run.in.close();
+			}
+		}
+	}
+
+	/**
+	 * A run file being merged, positioned on a posting of its current term.
+	 */
+	private static class Run {
+
+		final DataInputStream in;
+		final int number;
+
+		String term;
+
+		// postings of the term not written yet, and the current one
+		int left;
+		int docId;
+		int frequency;
+
+		Run(Path file, int number) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+			this.number = number;
+		}
+
+		// moves to the next term, false at the end of the run
+		boolean nextTerm() throws IOException {
+
+			int length;
+			try {
+				length = in.readInt();
+			} catch (EOFException e) {
+				return false;
+			}
+			byte[] bytes = new byte[length];
+			in.readFully(bytes);
+			term = new String(bytes, StandardCharsets.UTF_8);
+			left = in.readInt();
+			readPosting();
+			return true;
+		}
+
+		// moves to the next posting of the term
+		void nextPosting() throws IOException {
+			left--;
+			if (left > 0) {
+				readPosting();
+			}
+		}
+
+		private void readPosting() throws IOException {
+			docId = in.readInt();
+			frequency = in.readInt();
+		}
+	}
+}
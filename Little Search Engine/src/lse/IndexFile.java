@@ -0,0 +1,770 @@
+package lse;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * This class reads and writes keyword indexes in a compact binary file. The
+ * file is laid out as follows, all numbers being big-endian ints, except
+ * offsets, which are longs:
+ *
+ * <pre>
+ * magic, version
+ * term entries, in ascending order of their UTF-8 bytes, each one being:
+ *     term length, term bytes, number of postings, (document id, frequency)*,
+ *     length of the positions, positions
+ * documents: count, (offset of name, document length)*, (name length, name bytes)*
+ * directory: count, offset of each term entry
+ * trailer: offset of documents, offset of directory, magic
+ * </pre>
+ *
+ * Document ids are the ids of the index's DocumentTable, and postings are stored
+ * in the same DESCENDING order of frequencies as in the index. Positions, if
+ * the index records them, are varints: the number of documents, then for each
+ * document in ascending order of ids, the difference with the previous id, the
+ * length of its encoded positions, and the positions as encoded in Positions.
+ * Version 3 files, whose offsets are ints, and version 2 files, which also
+ * have no positions, can still be read.
+ *
+ * An opened file is memory-mapped, in chunks of 1GB so that files of any size
+ * can be mapped, and nothing is read from it until a keyword is looked up: the
+ * directory is binary searched in place, and only the postings of that keyword
+ * are decoded.
+ *
+ */
+public class IndexFile implements Closeable {
+
+	static final int MAGIC = 0x4C534549; // "LSEI"
+	static final int VERSION = 4;
+
+	/**
+	 * Size of the mapped chunks, a power of 2. Each chunk is mapped with
+	 * CHUNK_OVERLAP more bytes, so a number never straddles two chunks.
+	 */
+	private static final int CHUNK_BITS = 30;
+	private static final int CHUNK_OVERLAP = 8;
+
+	/**
+	 * Name of the file.
+	 */
+	private final Path path;
+
+	/**
+	 * Version of the file format.
+	 */
+	private final int version;
+
+	/**
+	 * Channel the file is mapped from.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * Mapped contents of the file, one buffer per chunk. Only absolute gets are
+	 * used, so the buffers can be read by several threads.
+	 */
+	private final ByteBuffer[] chunks;
+
+	/**
+	 * Size in bytes of an offset in the file: 8, or 4 before version 4.
+	 */
+	private final int offsetBytes;
+
+	/**
+	 * Offset of the document name offsets and lengths, and number of documents.
+	 */
+	private final long docsOffset;
+	private final int docCount;
+
+	/**
+	 * Offset of the term entry offsets, and number of terms.
+	 */
+	private final long dirOffset;
+	private final int termCount;
+
+	/**
+	 * Document names decoded so far, by document id.
+	 */
+	private final String[] docNames;
+
+	/**
+	 * Average document length, or -1 until it is computed.
+	 */
+	private volatile double averageLength = -1;
+
+	private IndexFile(Path path, FileChannel channel, ByteBuffer[] chunks, long end) throws IOException {
+		this.path = path;
+		this.channel = channel;
+		this.chunks = chunks;
+
+		if (end < 20 || getInt(0) != MAGIC || getInt(end - 4) != MAGIC) {
+			throw new IOException(path + " is not an index file");
+		}
+		version = getInt(4);
+		if (version != VERSION && version != 3 && version != 2) {
+			throw new IOException(path + " has unsupported index version " + version);
+		}
+		offsetBytes = version >= 4 ? 8 : 4;
+
+		long docs = getOffset(end - 4 - 2 * offsetBytes);
+		long dir = getOffset(end - 4 - offsetBytes);
+		docCount = getInt(docs);
+		docsOffset = docs + 4;
+		termCount = getInt(dir);
+		dirOffset = dir + 4;
+		docNames = new String[docCount];
+	}
+
+	/**
+	 * Opens an index file by memory-mapping it.
+	 *
+	 * @param file
+	 *            Index file written by write
+	 * @return Opened index file
+	 * @throws IOException
+	 *             If the file cannot be read, or is not an index file
+	 */
+	public static IndexFile open(Path file) throws IOException {
+
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			ByteBuffer[] chunks = new ByteBuffer[(int) ((size >>> CHUNK_BITS) + 1)];
+			for (int i = 0; i < chunks.length; i++) {
+				long from = (long) i << CHUNK_BITS;
+				long to = Math.min(size, from + (1L << CHUNK_BITS) + CHUNK_OVERLAP);
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+			}
+			return new IndexFile(file, channel, chunks, size);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes a keyword index to a file.
+	 *
+	 * @param file
+	 *            File to write, replaced if it exists
+	 * @param index
+	 *            Keyword index, each keyword mapped to its postings
+	 * @param docs
+	 *            Table of the document ids used in the postings
+	 * @throws IOException
+	 *             If the file cannot be written
+	 */
+	public static void write(Path file, Map<String, Postings> index, DocumentTable docs) throws IOException {
+
+		ArrayList<String> terms = new ArrayList<String>(index.keySet());
+		Collections.sort(terms, new Comparator<String>() {
+			public int compare(String a, String b) {
+				return compareBytes(a.getBytes(StandardCharsets.UTF_8), b.getBytes(StandardCharsets.UTF_8));
+			}
+		});
+
+		Writer out = new Writer(file);
+		try {
+			for (int id = 0; id < docs.size(); id++) {
+				out.addDocument(docs.name(id), docs.length(id));
+			}
+			for (String term : terms) {
+				out.addTerm(term, index.get(term));
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Streams an index file out one term at a time. Terms must be added in
+	 * ascending order of their UTF-8 bytes. Documents are written to a side file
+	 * until the writer is closed, so the writer's memory does not grow with the
+	 * number of documents.
+	 */
+	public static class Writer implements Closeable {
+
+		private final DataOutputStream out;
+
+		/**
+		 * Number of bytes written to out, which DataOutputStream stops counting at
+		 * 2GB.
+		 */
+		private long written;
+
+		/**
+		 * Side file holding the documents, (length, name length, name bytes)*, in id
+		 * order, and the stream writing it.
+		 */
+		private final Path docsFile;
+		private final DataOutputStream docsOut;
+
+		/**
+		 * Number of documents, and total length of their names in bytes.
+		 */
+		private int docs;
+		private long docNameBytes;
+
+		/**
+		 * Postings left to write for the current term, in the streaming API.
+		 */
+		private int postingsLeft;
+
+		/**
+		 * Offsets of the term entries written so far, and their number.
+		 */
+		private long[] termOffsets = new long[1024];
+		private int terms;
+
+		/**
+		 * Bytes of the last term written.
+		 */
+		private byte[] lastTerm;
+
+		/**
+		 * Creates the file and writes its header.
+		 *
+		 * @param file
+		 *            File to write, replaced if it exists
+		 * @throws IOException
+		 *             If the file cannot be written
+		 */
+		public Writer(Path file) throws IOException {
+			out = new DataOutputStream(new FilterOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+				public void write(int b) throws IOException {
+					super.out.write(b);
+					written++;
+				}
+
+				public void write(byte[] b, int off, int len) throws IOException {
+					super.out.write(b, off, len);
+					written += len;
+				}
+			});
+			docsFile = file.resolveSibling(file.getFileName() + ".docs");
+			try {
+				docsOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(docsFile), 1 << 16));
+			} catch (IOException e) {
+				out.close();
+				throw e;
+			}
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+		}
+
+		/**
+		 * Writes the postings of a term.
+		 *
+		 * @param term
+		 *            Keyword, greater than the previous one
+		 * @param postings
+		 *            Postings of the keyword
+		 * @throws IOException
+		 *             If the file cannot be written
+		 */
+		public void addTerm(String term, Postings postings) throws IOException {
+
+			writeTermStart(term, postings.size());
+			PostingsIterator it = postings.iterator();
+			while (it.next()) {
+				out.writeInt(it.docId());
+				out.writeInt(it.frequency());
+			}
+			writePositions(postings.positions());
+		}
+
+		// helper for addTerm, writes the length of the positions and the positions
+		private void writePositions(Positions positions) throws IOException {
+
+			if (positions == null) {
+				out.writeInt(0);
+				return;
+			}
+
+			byte[] data = positions.data();
+			byte[] bytes = new byte[5 + positions.size() * 10 + positions.end(positions.size() - 1)];
+			int at = CompressedPostings.writeVarint(bytes, 0, positions.size());
+			int previous = 0;
+			for (int i = 0; i < positions.size(); i++) {
+				int from = positions.offset(i);
+				int n = positions.end(i) - from;
+				at = CompressedPostings.writeVarint(bytes, at, positions.docId(i) - previous);
+				at = CompressedPostings.writeVarint(bytes, at, n);
+				System.arraycopy(data, from, bytes, at, n);
+				at += n;
+				previous = positions.docId(i);
+			}
+			out.writeInt(at);
+			out.write(bytes, 0, at);
+		}
+
+		/**
+		 * Starts writing the postings of a term one at a time, for postings that are
+		 * merged as they are written. The postings are written with addPosting, in
+		 * DESCENDING order of frequencies, and the term is finished by endTerm.
+		 *
+		 * @param term
+		 *            Keyword, greater than the previous one
+		 * @param postings
+		 *            Number of postings that will be written
+		 * @throws IOException
+		 *             If the file cannot be written
+		 */
+		public void startTerm(String term, int postings) throws IOException {
+
+			if (postingsLeft != 0) {
+				throw new IllegalStateException("Term started before the previous one is finished");
+			}
+			writeTermStart(term, postings);
+			postingsLeft = postings;
+		}
+
+		/**
+		 * Writes a posting of the term being written.
+		 *
+		 * @param docId
+		 *            Document id
+		 * @param frequency
+		 *            Frequency of the term in the document
+		 * @throws IOException
+		 *             If the file cannot be written
+		 */
+		public void addPosting(int docId, int frequency) throws IOException {
+
+			if (postingsLeft == 0) {
+				throw new IllegalStateException("More postings than announced by startTerm");
+			}
+			out.writeInt(docId);
+			out.writeInt(frequency);
+			postingsLeft--;
+		}
+
+		/**
+		 * Finishes the term being written. Terms written one posting at a time have
+		 * no positions.
+		 *
+		 * @throws IOException
+		 *             If the file cannot be written
+		 */
+		public void endTerm() throws IOException {
+
+			if (postingsLeft != 0) {
+				throw new IllegalStateException(postingsLeft + " postings missing for the term");
+			}
+			writePositions(null);
+		}
+
+		// helper for addTerm and startTerm, writes the start of a term entry
+		private void writeTermStart(String term, int postings) throws IOException {
+
+			byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+			if (lastTerm != null && compareBytes(lastTerm, bytes) >= 0) {
+				throw new IllegalArgumentException("Terms out of order: " + term);
+			}
+			lastTerm = bytes;
+
+			if (terms == termOffsets.length) {
+				termOffsets = Arrays.copyOf(termOffsets, terms * 2);
+			}
+			termOffsets[terms++] = position();
+
+			out.writeInt(bytes.length);
+			out.write(bytes);
+			out.writeInt(postings);
+		}
+
+		/**
+		 * Adds a document to the file, giving it the next id.
+		 *
+		 * @param name
+		 *            Document name
+		 * @param length
+		 *            Number of keywords in the document
+		 * @return Document id
+		 * @throws IOException
+		 *             If the side file of the documents cannot be written
+		 */
+		public int addDocument(String name, int length) throws IOException {
+			byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+			docsOut.writeInt(length);
+			docsOut.writeInt(bytes.length);
+			docsOut.write(bytes);
+			docNameBytes += bytes.length;
+			return docs++;
+		}
+
+		// helper, offset of the next byte written
+		private long position() throws IOException {
+
+			out.flush();
+			return written;
+		}
+
+		/**
+		 * Writes the documents, the directory and the trailer, and closes the file.
+		 *
+		 * @throws IOException
+		 *             If the file cannot be written
+		 */
+		public void close() throws IOException {
+
+			try {
+				docsOut.close();
+
+				long docsStart = position();
+				out.writeInt(docs);
+
+				// names follow the table of their offsets and lengths, which is
+				// written in a first pass over the side file, and the names in a
+				// second one
+				long offset = docsStart + 4 + 12L * docs;
+				DataInputStream in = openDocs();
+				try {
+					for (int i = 0; i < docs; i++) {
+						out.writeLong(offset);
+						out.writeInt(in.readInt());
+						int n = in.readInt();
+						in.skipBytes(n);
+						offset += 4 + n;
+					}
+				} finally {
+					in.close();
+				}
+
+				in = openDocs();
+				try {
+					byte[] name = new byte[256];
+					for (int i = 0; i < docs; i++) {
+						in.readInt();
+						int n = in.readInt();
+						if (n > name.length) {
+							name = new byte[n];
+						}
+						in.readFully(name, 0, n);
+						out.writeInt(n);
+						out.write(name, 0, n);
+					}
+				} finally {
+					in.close();
+				}
+
+				long dirStart = position();
+				out.writeInt(terms);
+				for (int i = 0; i < terms; i++) {
+					out.writeLong(termOffsets[i]);
+				}
+
+				out.writeLong(docsStart);
+				out.writeLong(dirStart);
+				out.writeInt(MAGIC);
+			} finally {
+				try {
+					out.close();
+				} finally {
+					docsOut.close();
+					Files.deleteIfExists(docsFile);
+				}
+			}
+		}
+
+		// helper for close, opens the side file of the documents
+		private DataInputStream openDocs() throws IOException {
+			return new DataInputStream(new BufferedInputStream(Files.newInputStream(docsFile), 1 << 16));
+		}
+	}
+
+	/**
+	 * Looks up the postings of a keyword.
+	 *
+	 * @param keyword
+	 *            Keyword
+	 * @return Postings of the keyword, or null if the keyword is not in the file
+	 */
+	public Postings getPostings(String keyword) {
+
+		long entry = findTerm(keyword.getBytes(StandardCharsets.UTF_8));
+		if (entry < 0) {
+			return null;
+		}
+
+		long at = entry + 4 + getInt(entry);
+		int count = getInt(at);
+		at += 4;
+
+		int[] docIds = new int[count];
+		int[] frequencies = new int[count];
+		for (int i = 0; i < count; i++, at += 8) {
+			docIds[i] = getInt(at);
+			frequencies[i] = getInt(at + 4);
+		}
+
+		Postings postings = new Postings(docIds, frequencies, count);
+		if (version >= 3 && getInt(at) > 0) {
+			postings.setPositions(readPositions(at + 4, getInt(at)));
+		}
+		return postings;
+	}
+
+	// helper for getPostings, decodes the positions of a term
+	private Positions readPositions(long at, int length) {
+
+		byte[] bytes = readBytes(at, length);
+
+		int[] read = new int[1];
+		int from = readVarint(bytes, 0, read);
+		int size = read[0];
+		int[] docIds = new int[Math.max(2, size)];
+		int[] offsets = new int[docIds.length];
+
+		// the positions are moved to the front of the array, in place
+		int used = 0;
+		int docId = 0;
+		for (int i = 0; i < size; i++) {
+			from = readVarint(bytes, from, read);
+			docId += read[0];
+			from = readVarint(bytes, from, read);
+			int n = read[0];
+
+			docIds[i] = docId;
+			offsets[i] = used;
+			System.arraycopy(bytes, from, bytes, used, n);
+			from += n;
+			used += n;
+		}
+		return new Positions(docIds, offsets, bytes, size, used);
+	}
+
+	// helper for readPositions, decodes the varint at an offset into value[0],
+	// returning the offset after it
+	private static int readVarint(byte[] bytes, int at, int[] value) {
+
+		int v = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = bytes[at++];
+			v |= (b & 0x7f) << shift;
+			if (b >= 0) {
+				value[0] = v;
+				return at;
+			}
+		}
+	}
+
+	/**
+	 * Looks up the occurrences of a keyword.
+	 *
+	 * @param keyword
+	 *            Keyword
+	 * @return Occurrences of the keyword, in DESCENDING order of frequencies, or
+	 *         null if the keyword is not in the file
+	 */
+	public ArrayList<Occurrence> getOccurrences(String keyword) {
+
+		Postings postings = getPostings(keyword);
+		if (postings == null) {
+			return null;
+		}
+
+		ArrayList<Occurrence> occs = new ArrayList<Occurrence>(postings.size());
+		for (int i = 0; i < postings.size(); i++) {
+			occs.add(new Occurrence(documentName(postings.docId(i)), postings.frequency(i)));
+		}
+		return occs;
+	}
+
+	/**
+	 * Returns the number of keywords in this file.
+	 *
+	 * @return Number of keywords
+	 */
+	public int termCount() {
+		return termCount;
+	}
+
+	/**
+	 * Returns a keyword by its rank in the file.
+	 *
+	 * @param i
+	 *            Rank of the keyword, in ascending order of UTF-8 bytes
+	 * @return Keyword
+	 */
+	public String term(int i) {
+
+		long entry = getOffset(dirOffset + (long) offsetBytes * i);
+		return decode(entry + 4, getInt(entry));
+	}
+
+	/**
+	 * Returns the name of a document.
+	 *
+	 * @param id
+	 *            Document id in this file
+	 * @return Document name
+	 */
+	public String documentName(int id) {
+
+		String name = docNames[id];
+		if (name == null) {
+			long at = getOffset(docsOffset + (long) (offsetBytes + 4) * id);
+			name = decode(at + 4, getInt(at));
+			docNames[id] = name;
+		}
+		return name;
+	}
+
+	/**
+	 * Returns the length of a document.
+	 *
+	 * @param id
+	 *            Document id in this file
+	 * @return Number of keywords in the document
+	 */
+	public int documentLength(int id) {
+		return getInt(docsOffset + (long) (offsetBytes + 4) * id + offsetBytes);
+	}
+
+	/**
+	 * Returns the average length of the documents in this file. It is computed on
+	 * the first call, reading the length of every document.
+	 *
+	 * @return Average number of keywords in a document, 0 if there are none
+	 */
+	public double averageDocumentLength() {
+
+		if (averageLength < 0) {
+			long total = 0;
+			for (int id = 0; id < docCount; id++) {
+				total += documentLength(id);
+			}
+			averageLength = docCount == 0 ? 0 : (double) total / docCount;
+		}
+		return averageLength;
+	}
+
+	/**
+	 * Returns the number of documents in this file.
+	 *
+	 * @return Number of documents
+	 */
+	public int documentCount() {
+		return docCount;
+	}
+
+	/**
+	 * Returns the name of this file.
+	 *
+	 * @return File name
+	 */
+	public Path path() {
+		return path;
+	}
+
+	/**
+	 * Closes the channel of this file. The mapping itself is released when the
+	 * buffer is garbage collected.
+	 */
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	// helper for getPostings, binary searches the directory for a term,
+	// returning the offset of its entry or -1
+	private long findTerm(byte[] term) {
+
+		int low = 0;
+		int high = termCount - 1;
+
+		while (low <= high) {
+
+			int middle = (low + high) >>> 1;
+			long entry = getOffset(dirOffset + (long) offsetBytes * middle);
+			int c = compareEntry(entry, term);
+
+			if (c == 0) {
+				return entry;
+			} else if (c < 0) {
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return -1;
+	}
+
+	// helper for findTerm, compares the bytes of a term entry with a term
+	private int compareEntry(long entry, byte[] term) {
+
+		int len = getInt(entry);
+		int n = Math.min(len, term.length);
+		for (int i = 0; i < n; i++) {
+			int c = (getByte(entry + 4 + i) & 0xff) - (term[i] & 0xff);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return len - term.length;
+	}
+
+	// helper, decodes UTF-8 bytes of the file
+	private String decode(long at, int len) {
+		return new String(readBytes(at, len), StandardCharsets.UTF_8);
+	}
+
+	// helper, copies bytes of the file
+	private byte[] readBytes(long at, int len) {
+
+		byte[] bytes = new byte[len];
+		for (int i = 0; i < len; i++) {
+			bytes[i] = getByte(at + i);
+		}
+		return bytes;
+	}
+
+	// helper, the int at an offset of the file
+	private int getInt(long at) {
+		return chunks[(int) (at >>> CHUNK_BITS)].getInt((int) (at & ((1L << CHUNK_BITS) - 1)));
+	}
+
+	// helper, the byte at an offset of the file
+	private byte getByte(long at) {
+		return chunks[(int) (at >>> CHUNK_BITS)].get((int) (at & ((1L << CHUNK_BITS) - 1)));
+	}
+
+	// helper, the offset stored at an offset of the file, as wide as the
+	// version of the file has them
+	private long getOffset(long at) {
+
+		if (offsetBytes == 4) {
+			return getInt(at);
+		}
+		ByteBuffer chunk = chunks[(int) (at >>> CHUNK_BITS)];
+		return chunk.getLong((int) (at & ((1L << CHUNK_BITS) - 1)));
+	}
+
+	/**
+	 * Compares two byte arrays as unsigned bytes, which is the order of terms in an
+	 * index file.
+	 *
+	 * @param a
+	 *            First array
+	 * @param b
+	 *            Second array
+	 * @return Negative, zero or positive as a is less than, equal to or greater
+	 *         than b
+	 */
+	static int compareBytes(byte[] a, byte[] b) {
+
+		int n = Math.min(a.length, b.length);
+		for (int i = 0; i < n; i++) {
+			int c = (a[i] & 0xff) - (b[i] & 0xff);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return a.length - b.length;
+	}
+}
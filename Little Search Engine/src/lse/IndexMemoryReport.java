@@ -0,0 +1,65 @@
+package lse;
+
+import java.io.FileNotFoundException;
+import java.util.*;
+
+/**
+ * Prints the heap used by the postings of an index in each of its
+ * representations: lists of Occurrence objects, int arrays, and compressed
+ * postings, with and without an uncompressed head. Keywords and document names
+ * are the same in all of them, so they are left out of the comparison, and the
+ * keyword table is reported on its own.
+ *
+ * Usage: java lse.IndexMemoryReport docsFile noiseWordsFile
+ *
+ */
+public class IndexMemoryReport {
+
+	public static void main(String[] args) throws FileNotFoundException {
+
+		if (args.length != 2) {
+			System.err.println("Usage: java lse.IndexMemoryReport docsFile noiseWordsFile");
+			System.exit(1);
+		}
+
+		LittleSearchEngine lse = new LittleSearchEngine();
+		lse.makeIndex(args[0], args[1]);
+
+		long postings = 0;
+		long occurrenceLists = 0;
+		long arrays = 0;
+		for (Postings p : lse.keywordsIndex.values()) {
+			postings += p.size();
+			// ArrayList, its array of references, and one Occurrence per posting
+			occurrenceLists += 24 + Postings.align(16 + 4L * p.size()) + 24L * p.size();
+			arrays += p.memoryBytes();
+		}
+
+		lse.compressIndex(0);
+		long compressed = 0;
+		for (Postings p : lse.keywordsIndex.values()) {
+			compressed += p.memoryBytes();
+		}
+
+		lse.compressIndex();
+		long tiered = 0;
+		for (Postings p : lse.keywordsIndex.values()) {
+			tiered += p.memoryBytes();
+		}
+
+		System.out.println("documents:          " + lse.documents.size());
+		System.out.println("keywords:           " + lse.keywordsIndex.size() + " (" + lse.keywordsIndex.memoryBytes()
+				+ " bytes on heap, " + lse.keywordsIndex.offHeapBytes() + " off heap)");
+		System.out.println("postings:           " + postings);
+		System.out.println("Occurrence lists:   " + occurrenceLists + " bytes");
+		System.out.println("int arrays:         " + arrays + " bytes (" + ratio(occurrenceLists, arrays) + ")");
+		System.out.println("compressed:         " + compressed + " bytes (" + ratio(occurrenceLists, compressed) + ")");
+		System.out.println("compressed, head " + Postings.HEAD_SIZE + ": " + tiered + " bytes ("
+				+ ratio(occurrenceLists, tiered) + ")");
+	}
+
+	// helper, formats how many times smaller a size is than the original
+	private static String ratio(long original, long size) {
+		return String.format("%.1fx smaller", (double) original / size);
+	}
+}
@@ -0,0 +1,616 @@
+package lse;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class is one version of the index, which never changes once it is
+ * published. The search engine builds the next version while searches keep
+ * running on this one, then publishes it through a single volatile reference,
+ * so searches need no locks and always see a complete index.
+ *
+ * The keywords are split between two hash tables that are shared between
+ * versions: a base KeywordTable, copied from the whole index now and then, and a
+ * table of the keywords changed since the base was copied, which is the only
+ * part copied on every version. Postings reached from a snapshot are frozen:
+ * the engine copies them before changing them.
+ *
+ * Postings may still hold documents that were removed since the index was last
+ * compacted. Searches leave those documents out.
+ *
+ */
+public class IndexSnapshot {
+
+	/**
+	 * Version of the index.
+	 */
+	final long version;
+
+	/**
+	 * Postings of all keywords as of some earlier version, and of the keywords
+	 * changed since then. Neither table is ever changed.
+	 */
+	private final KeywordTable base;
+	private final HashMap<String, Postings> changed;
+
+	/**
+	 * Sorted dictionaries of the keywords, for patterns: the dictionary of the
+	 * base table, shared like the table itself, of the changed keywords, and of
+	 * the index file, if any.
+	 */
+	private final TermDictionary[] dictionaries;
+
+	/**
+	 * Index file the postings are read from, or null.
+	 */
+	private final IndexFile file;
+
+	/**
+	 * Maximum number of postings, of all keywords, read from the index file that
+	 * are kept.
+	 */
+	private static final int FILE_CACHE_POSTINGS = 1 << 20;
+
+	/**
+	 * Postings read from the index file, least recently used first, and their
+	 * number of postings, both guarded by the map. Postings used least recently
+	 * are dropped, so the heap does not fill up with the index the file keeps off
+	 * it.
+	 */
+	private final LinkedHashMap<String, Postings> fromFile;
+	private long fromFilePostings;
+
+	/**
+	 * Document names and lengths, by id. These are the arrays of the document
+	 * table, which only adds documents after the ones seen here.
+	 */
+	private final String[] names;
+	private final int[] lengths;
+	private final int documentCount;
+	private final int documentIds;
+	private final double averageLength;
+
+	/**
+	 * Ids of the removed documents, or null if there are none.
+	 */
+	private final BitSet removed;
+
+	/**
+	 * Postings in document order, by keyword, built for searches that need them.
+	 */
+	private final ConcurrentHashMap<String, DocPostings> docOrdered;
+
+	/**
+	 * BM25 search on this version, or null until one is needed.
+	 */
+	private volatile RankedSearch rankedSearch;
+
+	/**
+	 * Initializes a snapshot.
+	 *
+	 * @param version
+	 *            Version of the index
+	 * @param base
+	 *            Postings of all keywords as of some earlier version
+	 * @param changed
+	 *            Postings of the keywords changed since then
+	 * @param baseTerms
+	 *            Dictionary of the keywords in base
+	 * @param documents
+	 *            Document table
+	 * @param file
+	 *            Index file holding the postings and documents instead, or null
+	 */
+	IndexSnapshot(long version, KeywordTable base, HashMap<String, Postings> changed,
+			TermDictionary baseTerms, DocumentTable documents, IndexFile file) {
+
+		this.version = version;
+		this.base = base;
+		this.changed = changed;
+		this.file = file;
+		fromFile = file == null ? null : new LinkedHashMap<String, Postings>(16, 0.75f, true);
+
+		if (file != null) {
+			dictionaries = new TermDictionary[] { baseTerms, new TermDictionary(changed.keySet()),
+					new TermDictionary(file) };
+		} else {
+			dictionaries = new TermDictionary[] { baseTerms, new TermDictionary(changed.keySet()) };
+		}
+
+		if (file != null) {
+			names = null;
+			lengths = null;
+			documentCount = file.documentCount();
+			documentIds = documentCount;
+			averageLength = file.averageDocumentLength();
+			removed = null;
+		} else {
+			names = documents.names();
+			lengths = documents.lengths();
+			documentCount = documents.size() - documents.removedCount();
+			documentIds = documents.size();
+			averageLength = documents.averageLength();
+			removed = documents.removedCount() == 0 ? null : documents.removed();
+		}
+		docOrdered = new ConcurrentHashMap<String, DocPostings>();
+	}
+
+	/**
+	 * Returns the version of the index.
+	 *
+	 * @return Index version
+	 */
+	public long version() {
+		return version;
+	}
+
+	/**
+	 * Returns the postings of a keyword.
+	 *
+	 * @param keyword
+	 *            Keyword
+	 * @return Postings, which must not be changed and may hold removed documents,
+	 *         see isRemoved, or null if the keyword is not in the index
+	 */
+	public Postings postings(String keyword) {
+
+		if (keyword == null) {
+			return null;
+		}
+
+		Postings postings = changed.get(keyword);
+		if (postings == null) {
+			postings = base.get(keyword);
+		}
+		if (postings == null && file != null) {
+			synchronized (fromFile) {
+				postings = fromFile.get(keyword);
+			}
+			if (postings == null) {
+				postings = file.getPostings(keyword);
+				if (postings != null) {
+					postings.freeze();
+					keepFromFile(keyword, postings);
+				}
+			}
+		}
+		return postings;
+	}
+
+	// helper for postings, keeps postings read from the file, dropping the ones
+	// used least recently past FILE_CACHE_POSTINGS
+	private void keepFromFile(String keyword, Postings postings) {
+
+		synchronized (fromFile) {
+			if (postings.size() > FILE_CACHE_POSTINGS || fromFile.containsKey(keyword)) {
+				return;
+			}
+			fromFile.put(keyword, postings);
+			fromFilePostings += postings.size();
+
+			Iterator<Postings> oldest = fromFile.values().iterator();
+			while (fromFilePostings > FILE_CACHE_POSTINGS) {
+				fromFilePostings -= oldest.next().size();
+				oldest.remove();
+			}
+		}
+	}
+
+	/**
+	 * Returns whether a document was removed. Removed documents stay in the
+	 * postings until the index is compacted.
+	 *
+	 * @param docId
+	 *            Document id
+	 * @return True if the document was removed
+	 */
+	public boolean isRemoved(int docId) {
+		return removed != null && removed.get(docId);
+	}
+
+	/**
+	 * Returns an iterator over the postings of a keyword that skips the removed
+	 * documents.
+	 *
+	 * @param keyword
+	 *            Keyword
+	 * @return Iterator, or null if the keyword is not in the index
+	 */
+	public PostingsIterator iterator(String keyword) {
+
+		Postings postings = postings(keyword);
+		return postings == null ? null : iterator(postings);
+	}
+
+	// helper, an iterator over postings of this snapshot that skips the removed
+	// documents
+	PostingsIterator iterator(Postings postings) {
+
+		final PostingsIterator it = postings.iterator();
+		if (removed == null) {
+			return it;
+		}
+		return new PostingsIterator() {
+			public boolean next() {
+				while (it.next()) {
+					if (!removed.get(it.docId())) {
+						return true;
+					}
+				}
+				return false;
+			}
+
+			public int docId() {
+				return it.docId();
+			}
+
+			public int frequency() {
+				return it.frequency();
+			}
+		};
+	}
+
+	/**
+	 * Finds the keywords that match a pattern, see TermDictionary.
+	 *
+	 * @param pattern
+	 *            Pattern, with '*' for any number of letters and '?' for one
+	 * @param max
+	 *            Maximum number of keywords
+	 * @return Matching keywords, in ascending order, the first max ones if there
+	 *         are more
+	 */
+	public ArrayList<String> expand(String pattern, int max) {
+
+		pattern = pattern.toLowerCase();
+		ArrayList<String> terms = new ArrayList<String>();
+		for (TermDictionary dictionary : dictionaries) {
+			terms.addAll(dictionary.expand(pattern, max));
+		}
+		Collections.sort(terms, new Comparator<String>() {
+			public int compare(String a, String b) {
+				return TermDictionary.compare(a, b);
+			}
+		});
+
+		ArrayList<String> expanded = new ArrayList<String>();
+		for (String term : terms) {
+			if (expanded.size() == max) {
+				break;
+			}
+			if (expanded.isEmpty() || !expanded.get(expanded.size() - 1).equals(term)) {
+				expanded.add(term);
+			}
+		}
+		return expanded;
+	}
+
+	/**
+	 * Returns the postings of a keyword in document order.
+	 *
+	 * @param keyword
+	 *            Keyword
+	 * @return Postings in document order, without removed documents, or null if
+	 *         the keyword is not in the index
+	 */
+	public DocPostings docOrdered(String keyword) {
+
+		DocPostings postings = keyword == null ? null : docOrdered.get(keyword);
+		if (postings == null) {
+			Postings p = postings(keyword);
+			if (p == null) {
+				return null;
+			}
+			postings = new DocPostings(p, removed);
+			docOrdered.putIfAbsent(keyword, postings);
+		}
+		return postings;
+	}
+
+	/**
+	 * Returns the name of a document.
+	 *
+	 * @param docId
+	 *            Document id
+	 * @return Document name
+	 */
+	public String documentName(int docId) {
+		return file != null ? file.documentName(docId) : names[docId];
+	}
+
+	/**
+	 * Returns the number of documents in the index, removed documents left out.
+	 *
+	 * @return Number of documents
+	 */
+	public int documentCount() {
+		return documentCount;
+	}
+
+	// helper for RankedSearch, the number of document ids taken, removed
+	// documents included
+	int documentIds() {
+		return documentIds;
+	}
+
+	/**
+	 * Returns the length of a document.
+	 *
+	 * @param docId
+	 *            Document id
+	 * @return Number of keywords in the document
+	 */
+	public int documentLength(int docId) {
+		return file != null ? file.documentLength(docId) : lengths[docId];
+	}
+
+	/**
+	 * Returns the average length of the documents.
+	 *
+	 * @return Average number of keywords in a document
+	 */
+	public double averageDocumentLength() {
+		return averageLength;
+	}
+
+	/**
+	 * Search result for "kw1 or kw2 or ...", see LittleSearchEngine.topKSearch.
+	 * Patterns expand to at most TermDictionary.MAX_EXPANSIONS keywords.
+	 *
+	 * @param keywords
+	 *            Keywords or patterns, in tie-breaking order
+	 * @param k
+	 *            Maximum number of documents in the result
+	 * @return List of documents in which any of the keywords occurs, arranged in
+	 *         descending order of frequencies, or null if there are no matches
+	 */
+	public ArrayList<String> topKSearch(Collection<String> keywords, int k) {
+		return topKSearch(keywords, k, TermDictionary.MAX_EXPANSIONS);
+	}
+
+	/**
+	 * Search result for "kw1 or kw2 or ...", see LittleSearchEngine.topKSearch.
+	 *
+	 * @param keywords
+	 *            Keywords or patterns, in tie-breaking order
+	 * @param k
+	 *            Maximum number of documents in the result
+	 * @param maxExpansions
+	 *            Maximum number of keywords a pattern expands to
+	 * @return List of documents in which any of the keywords occurs, arranged in
+	 *         descending order of frequencies, or null if there are no matches
+	 */
+	public ArrayList<String> topKSearch(Collection<String> keywords, int k, int maxExpansions) {
+
+		if (k < 1) {
+			throw new IllegalArgumentException("k must be at least 1: " + k);
+		}
+
+		// patterns are replaced by the keywords they match, in order
+		ArrayList<String> expanded = new ArrayList<String>(keywords.size());
+		for (String keyword : keywords) {
+			if (TermDictionary.isPattern(keyword)) {
+				expanded.addAll(expand(keyword, maxExpansions));
+			} else {
+				expanded.add(keyword);
+			}
+		}
+
+		PostingsIterator[] lists = new PostingsIterator[expanded.size()];
+		boolean found = false;
+		int i = 0;
+		for (String keyword : expanded) {
+			lists[i] = iterator(keyword);
+			if (lists[i] != null) {
+				found = true;
+			}
+			i++;
+		}
+
+		if (!found) {
+			return null;
+		}
+		// keywords may only be left with removed documents
+		int[] docIds = new TopKMerge(lists).top(k);
+		return docIds.length == 0 ? null : names(docIds);
+	}
+
+	/**
+	 * Ranked search for "kw1 or kw2 or ...", see LittleSearchEngine.rankedSearch.
+	 *
+	 * @param keywords
+	 *            Keywords
+	 * @param k
+	 *            Maximum number of documents in the result
+	 * @param k1
+	 *            BM25 term frequency saturation
+	 * @param b
+	 *            BM25 length normalization, between 0 and 1
+	 * @return List of documents in which any of the keywords occurs, highest score
+	 *         first, or null if there are no matches
+	 */
+	public ArrayList<String> rankedSearch(Collection<String> keywords, int k, double k1, double b) {
+
+		if (k < 1) {
+			throw new IllegalArgumentException("k must be at least 1: " + k);
+		}
+
+		RankedSearch search = rankedSearch;
+		if (search == null || search.k1 != k1 || search.b != b) {
+			search = new RankedSearch(this, k1, b);
+			rankedSearch = search;
+		}
+
+		int[] docIds = search.topK(keywords, k);
+		return docIds == null || docIds.length == 0 ? null : names(docIds);
+	}
+
+	/**
+	 * Search result for "kw1 and kw2 and ...", see LittleSearchEngine.andSearch.
+	 *
+	 * @param keywords
+	 *            Keywords
+	 * @param k
+	 *            Maximum number of documents in the result
+	 * @return List of documents in which all the keywords occur, highest combined
+	 *         frequency first, or null if there are no matches
+	 */
+	public ArrayList<String> andSearch(Collection<String> keywords, int k) {
+
+		if (k < 1) {
+			throw new IllegalArgumentException("k must be at least 1: " + k);
+		}
+
+		ArrayList<DocPostings> lists = new ArrayList<DocPostings>();
+		for (String keyword : new LinkedHashSet<String>(keywords)) {
+			DocPostings postings = docOrdered(keyword);
+			if (postings == null) {
+				return null;
+			}
+			lists.add(postings);
+		}
+		if (lists.isEmpty()) {
+			return null;
+		}
+
+		int[] docIds = AndSearch.top(lists.toArray(new DocPostings[lists.size()]), k);
+		return docIds.length == 0 ? null : names(docIds);
+	}
+
+	/**
+	 * Phrase search, see LittleSearchEngine.phraseSearch.
+	 *
+	 * @param words
+	 *            Keywords of the phrase, in order, null for a word that is not a
+	 *            keyword
+	 * @param k
+	 *            Maximum number of documents in the result
+	 * @return List of documents that hold the phrase, most occurrences first, or
+	 *         null if there are no matches
+	 */
+	public ArrayList<String> phraseSearch(List<String> words, int k) {
+
+		if (k < 1) {
+			throw new IllegalArgumentException("k must be at least 1: " + k);
+		}
+
+		ArrayList<Positions> lists = new ArrayList<Positions>();
+		ArrayList<Integer> offsets = new ArrayList<Integer>();
+		for (int i = 0; i < words.size(); i++) {
+			if (words.get(i) != null) {
+				Positions positions = positions(words.get(i));
+				if (positions == null) {
+					return null;
+				}
+				lists.add(positions);
+				offsets.add(i);
+			}
+		}
+		if (lists.isEmpty()) {
+			return null;
+		}
+
+		int[] at = new int[offsets.size()];
+		for (int i = 0; i < at.length; i++) {
+			at[i] = offsets.get(i);
+		}
+		int[] docIds = PhraseSearch.phrase(lists.toArray(new Positions[lists.size()]), at, removed, k);
+		return docIds.length == 0 ? null : names(docIds);
+	}
+
+	/**
+	 * Proximity search, see LittleSearchEngine.proximitySearch.
+	 *
+	 * @param keywords
+	 *            Keywords, the first one being the one the others must be near
+	 * @param within
+	 *            Maximum number of words between the first keyword and the others
+	 * @param k
+	 *            Maximum number of documents in the result
+	 * @return List of documents in which the keywords occur near one another, most
+	 *         matches first, or null if there are no matches
+	 */
+	public ArrayList<String> proximitySearch(Collection<String> keywords, int within, int k) {
+
+		if (k < 1) {
+			throw new IllegalArgumentException("k must be at least 1: " + k);
+		}
+		if (within < 0) {
+			throw new IllegalArgumentException("within must not be negative: " + within);
+		}
+
+		ArrayList<Positions> lists = new ArrayList<Positions>();
+		for (String keyword : new LinkedHashSet<String>(keywords)) {
+			Positions positions = positions(keyword);
+			if (positions == null) {
+				return null;
+			}
+			lists.add(positions);
+		}
+		if (lists.isEmpty()) {
+			return null;
+		}
+
+		int[] docIds = PhraseSearch.near(lists.toArray(new Positions[lists.size()]), within, removed, k);
+		return docIds.length == 0 ? null : names(docIds);
+	}
+
+	// helper, positions of a keyword, or null if it is not in the index or its
+	// positions are not recorded
+	private Positions positions(String keyword) {
+
+		Postings postings = postings(keyword);
+		return postings == null ? null : postings.positions();
+	}
+
+	// helper for SearchEngineMetrics, the postings of every keyword held in
+	// memory
+	ArrayList<Postings> postingsInMemory() {
+
+		BitSet replaced = new BitSet(base.size());
+		for (String keyword : changed.keySet()) {
+			int id = base.id(keyword);
+			if (id >= 0) {
+				replaced.set(id);
+			}
+		}
+
+		ArrayList<Postings> all = new ArrayList<Postings>(base.size() + changed.size());
+		for (int id = 0; id < base.size(); id++) {
+			if (!replaced.get(id)) {
+				all.add(base.postings(id));
+			}
+		}
+		all.addAll(changed.values());
+		return all;
+	}
+
+	// helper for SegmentedSearchEngine, the keywords held in memory
+	ArrayList<String> keywordsInMemory() {
+
+		ArrayList<String> all = new ArrayList<String>(base.size() + changed.size());
+		for (int id = 0; id < base.size(); id++) {
+			String keyword = base.keyword(id);
+			if (!changed.containsKey(keyword)) {
+				all.add(keyword);
+			}
+		}
+		all.addAll(changed.keySet());
+		return all;
+	}
+
+	// helper for SearchEngineMetrics, heap used by the keyword table
+	long keywordTableBytes() {
+		return base.memoryBytes();
+	}
+
+	// helper, names of documents
+	ArrayList<String> names(int[] docIds) {
+
+		ArrayList<String> result = new ArrayList<String>(docIds.length);
+		for (int docId : docIds) {
+			result.add(documentName(docId));
+		}
+		return result;
+	}
+}
@@ -0,0 +1,569 @@
+package lse;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * This class is a hash table from keywords to postings that keeps its keywords
+ * off the heap. The UTF-8 bytes of all the keywords are stored back to back in
+ * one direct ByteBuffer, and each keyword is given an int id, in the order in
+ * which keywords are added. An open-addressing table of ids, probed linearly,
+ * finds the id of a keyword by comparing the characters looked up with the
+ * bytes in the buffer, so looking a keyword up or adding one allocates nothing
+ * but the arrays the table grows into.
+ *
+ * On the heap, a keyword takes a slot in the table and a few ints by id,
+ * instead of a String, its byte array and a HashMap entry. Keywords given as
+ * Strings are hashed with String.hashCode, which is cached, and other
+ * CharSequences with the same function.
+ *
+ * The table is not thread safe. A read-only copy shares the buffer of the
+ * table it is copied from, whose bytes are never changed once written: the
+ * table only appends keywords after them, and moves to a new buffer when it
+ * grows or is cleared.
+ *
+ */
+public class KeywordTable extends AbstractMap<String, Postings> {
+
+	/**
+	 * Largest number of bytes the buffer can hold.
+	 */
+	private static final int MAX_BYTES = Integer.MAX_VALUE - 8;
+
+	/**
+	 * UTF-8 bytes of the keywords, in the order of their ids.
+	 */
+	private ByteBuffer bytes;
+
+	/**
+	 * Number of bytes used in the buffer.
+	 */
+	private int used;
+
+	/**
+	 * Offset of each keyword in the buffer, hash code of each keyword, and its
+	 * postings, by id.
+	 */
+	private int[] starts;
+	private int[] hashes;
+	private Postings[] values;
+
+	/**
+	 * Number of keywords.
+	 */
+	private int count;
+
+	/**
+	 * Open-addressing table of keyword ids plus 1, 0 for empty slots. Its length
+	 * is a power of 2, at least twice the number of keywords.
+	 */
+	private int[] slots;
+
+	/**
+	 * True if this table is a read-only copy.
+	 */
+	private final boolean readOnly;
+
+	/**
+	 * Initializes this table to empty.
+	 */
+	public KeywordTable() {
+		readOnly = false;
+		reset();
+	}
+
+	// helper for copy
+	private KeywordTable(KeywordTable table) {
+
+		readOnly = true;
+		bytes = table.bytes;
+		used = table.used;
+		count = table.count;
+		starts = Arrays.copyOf(table.starts, count);
+		hashes = Arrays.copyOf(table.hashes, count);
+		values = Arrays.copyOf(table.values, count);
+		slots = table.slots.clone();
+	}
+
+	/**
+	 * Returns a read-only copy of this table. The copy shares the keyword bytes
+	 * with this table, and copies the rest, about 20 bytes per keyword.
+	 *
+	 * @return Read-only copy
+	 */
+	public KeywordTable copy() {
+		return new KeywordTable(this);
+	}
+
+	/**
+	 * Returns the number of keywords in the table.
+	 *
+	 * @return Number of keywords
+	 */
+	@Override
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Returns the postings of a keyword, without allocating.
+	 *
+	 * @param keyword
+	 *            Keyword
+	 * @return Postings, or null if the keyword is not in the table
+	 */
+	public Postings get(CharSequence keyword) {
+
+		int id = id(keyword);
+		return id < 0 ? null : values[id];
+	}
+
+	@Override
+	public Postings get(Object key) {
+		return key instanceof CharSequence ? get((CharSequence) key) : null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return key instanceof CharSequence && id((CharSequence) key) >= 0;
+	}
+
+	/**
+	 * Sets the postings of a keyword, adding the keyword if it is not in the table.
+	 *
+	 * @param keyword
+	 *            Keyword
+	 * @param postings
+	 *            Postings, not null
+	 * @return Previous postings of the keyword, or null if it was added
+	 */
+	@Override
+	public Postings put(String keyword, Postings postings) {
+
+		checkWritable();
+		if (postings == null) {
+			throw new NullPointerException("postings");
+		}
+
+		int h = hash(keyword);
+		int slot = find(keyword, h);
+		if (slots[slot] != 0) {
+			int id = slots[slot] - 1;
+			Postings previous = values[id];
+			values[id] = postings;
+			return previous;
+		}
+
+		int length = utf8Length(keyword);
+		if (length > MAX_BYTES - used) {
+			throw new IllegalStateException("Keyword table is full: " + used + " bytes");
+		}
+		if (used + length > bytes.capacity()) {
+			grow(used + length);
+		}
+		if (count == starts.length) {
+			int capacity = count * 2;
+			starts = Arrays.copyOf(starts, capacity);
+			hashes = Arrays.copyOf(hashes, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		int id = count++;
+		starts[id] = used;
+		hashes[id] = h;
+		values[id] = postings;
+		used = encode(keyword, bytes, used);
+		slots[slot] = id + 1;
+
+		if (count * 2 > slots.length) {
+			rehash(slots.length * 2);
+		}
+		return null;
+	}
+
+	/**
+	 * Removes all keywords. The keyword bytes move to a new buffer, so read-only
+	 * copies of this table are left as they are.
+	 */
+	@Override
+	public void clear() {
+		checkWritable();
+		reset();
+	}
+
+	/**
+	 * Returns the id of a keyword, without allocating.
+	 *
+	 * @param keyword
+	 *            Keyword
+	 * @return Id of the keyword, or -1 if it is not in the table
+	 */
+	public int id(CharSequence keyword) {
+
+		if (keyword == null) {
+			return -1;
+		}
+		return slots[find(keyword, hash(keyword))] - 1;
+	}
+
+	/**
+	 * Returns a keyword by id.
+	 *
+	 * @param id
+	 *            Id of the keyword
+	 * @return Keyword
+	 */
+	public String keyword(int id) {
+
+		int start = starts[id];
+		byte[] utf8 = new byte[end(id) - start];
+		for (int i = 0; i < utf8.length; i++) {
+			utf8[i] = bytes.get(start + i);
+		}
+		return new String(utf8, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns the postings of a keyword by id.
+	 *
+	 * @param id
+	 *            Id of the keyword
+	 * @return Postings
+	 */
+	public Postings postings(int id) {
+		return values[id];
+	}
+
+	/**
+	 * Returns the ids of the keywords in ascending order of their UTF-8 bytes,
+	 * which is the order of TermDictionary.
+	 *
+	 * @return Keyword ids
+	 */
+	public int[] sortedIds() {
+
+		int[] ids = new int[count];
+		for (int i = 0; i < count; i++) {
+			ids[i] = i;
+		}
+		sort(ids, new int[count], 0, count);
+		return ids;
+	}
+
+	/**
+	 * Estimates the heap used by this table, as Postings.memoryBytes does, not
+	 * counting the postings.
+	 *
+	 * @return Estimated number of bytes
+	 */
+	public long memoryBytes() {
+		return 48 + 2 * Postings.align(16 + 4L * starts.length) + Postings.align(16 + 4L * values.length)
+				+ Postings.align(16 + 4L * slots.length);
+	}
+
+	/**
+	 * Returns the number of bytes of keywords held off the heap.
+	 *
+	 * @return Number of bytes used in the buffer
+	 */
+	public long offHeapBytes() {
+		return used;
+	}
+
+	@Override
+	public Collection<Postings> values() {
+
+		return new AbstractCollection<Postings>() {
+			public int size() {
+				return count;
+			}
+
+			public Iterator<Postings> iterator() {
+				return new Ids<Postings>() {
+					Postings at(int id) {
+						return values[id];
+					}
+				};
+			}
+		};
+	}
+
+	@Override
+	public Set<Map.Entry<String, Postings>> entrySet() {
+
+		return new AbstractSet<Map.Entry<String, Postings>>() {
+			public int size() {
+				return count;
+			}
+
+			public Iterator<Map.Entry<String, Postings>> iterator() {
+				return new Ids<Map.Entry<String, Postings>>() {
+					Map.Entry<String, Postings> at(final int id) {
+						return new Map.Entry<String, Postings>() {
+							public String getKey() {
+								return keyword(id);
+							}
+
+							public Postings getValue() {
+								return values[id];
+							}
+
+							public Postings setValue(Postings postings) {
+								checkWritable();
+								if (postings == null) {
+									throw new NullPointerException("postings");
+								}
+								Postings previous = values[id];
+								values[id] = postings;
+								return previous;
+							}
+						};
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Iterates over the keyword ids, in the order of the ids.
+	 */
+	private abstract class Ids<T> implements Iterator<T> {
+
+		private int next;
+
+		public boolean hasNext() {
+			return next < count;
+		}
+
+		public T next() {
+			if (next >= count) {
+				throw new NoSuchElementException();
+			}
+			return at(next++);
+		}
+
+		abstract T at(int id);
+	}
+
+	// helper, empties the table
+	private void reset() {
+
+		bytes = ByteBuffer.allocateDirect(1 << 12);
+		used = 0;
+		starts = new int[16];
+		hashes = new int[16];
+		values = new Postings[16];
+		count = 0;
+		slots = new int[32];
+	}
+
+	// helper, throws if this table is a read-only copy
+	private void checkWritable() {
+		if (readOnly) {
+			throw new UnsupportedOperationException("Read-only copy of a keyword table");
+		}
+	}
+
+	// helper, offset of the end of a keyword in the buffer
+	private int end(int id) {
+		return id + 1 < count ? starts[id + 1] : used;
+	}
+
+	// helper, slot of a keyword, or the empty slot where it would go
+	private int find(CharSequence keyword, int h) {
+
+		int mask = slots.length - 1;
+		int slot = spread(h) & mask;
+		while (slots[slot] != 0) {
+			int id = slots[slot] - 1;
+			if (hashes[id] == h && sameKeyword(id, keyword)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	// helper, moves the ids to a new table of the given length
+	private void rehash(int length) {
+
+		int[] rehashed = new int[length];
+		int mask = length - 1;
+		for (int id = 0; id < count; id++) {
+			int slot = spread(hashes[id]) & mask;
+			while (rehashed[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			rehashed[slot] = id + 1;
+		}
+		slots = rehashed;
+	}
+
+	// helper, moves the keywords to a larger buffer, leaving the old one to the
+	// read-only copies that share it
+	private void grow(int needed) {
+
+		int capacity = (int) Math.min(MAX_BYTES, Math.max(2L * bytes.capacity(), needed));
+		ByteBuffer grown = ByteBuffer.allocateDirect(capacity);
+		ByteBuffer old = bytes.duplicate();
+		old.position(0).limit(used);
+		grown.put(old);
+		bytes = grown;
+	}
+
+	// helper, compares the bytes of a keyword with characters, as they would be
+	// encoded
+	private boolean sameKeyword(int id, CharSequence keyword) {
+
+		int at = starts[id];
+		int end = end(id);
+		int n = keyword.length();
+		for (int i = 0; i < n; i++) {
+
+			int c = keyword.charAt(i);
+			if (c < 0x80) {
+				if (at >= end || bytes.get(at++) != c) {
+					return false;
+				}
+				continue;
+			}
+
+			if (Character.isHighSurrogate((char) c) && i + 1 < n && Character.isLowSurrogate(keyword.charAt(i + 1))) {
+				c = Character.toCodePoint((char) c, keyword.charAt(++i));
+			} else if (Character.isSurrogate((char) c)) {
+				c = '?';
+			}
+			int length = c < 0x80 ? 1 : c < 0x800 ? 2 : c < 0x10000 ? 3 : 4;
+			if (end - at < length) {
+				return false;
+			}
+			for (int b = 0; b < length; b++) {
+				if (bytes.get(at + b) != utf8Byte(c, length, b)) {
+					return false;
+				}
+			}
+			at += length;
+		}
+		return at == end;
+	}
+
+	// helper, compares two keywords on their bytes
+	private int compareKeywords(int a, int b) {
+
+		int i = starts[a];
+		int j = starts[b];
+		int endA = end(a);
+		int endB = end(b);
+		while (i < endA && j < endB) {
+			int x = bytes.get(i++) & 0xff;
+			int y = bytes.get(j++) & 0xff;
+			if (x != y) {
+				return x - y;
+			}
+		}
+		return (endA - i) - (endB - j);
+	}
+
+	// helper for sortedIds, merge sorts ids[from, to)
+	private void sort(int[] ids, int[] temp, int from, int to) {
+
+		if (to - from < 2) {
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		sort(ids, temp, from, middle);
+		sort(ids, temp, middle, to);
+		if (compareKeywords(ids[middle - 1], ids[middle]) <= 0) {
+			return;
+		}
+
+		System.arraycopy(ids, from, temp, from, to - from);
+		int i = from;
+		int j = middle;
+		for (int k = from; k < to; k++) {
+			if (j >= to || (i < middle && compareKeywords(temp[i], temp[j]) <= 0)) {
+				ids[k] = temp[i++];
+			} else {
+				ids[k] = temp[j++];
+			}
+		}
+	}
+
+	// helper, hash code of a keyword, the same as String.hashCode
+	private static int hash(CharSequence keyword) {
+
+		if (keyword instanceof String) {
+			return keyword.hashCode();
+		}
+		int h = 0;
+		for (int i = 0; i < keyword.length(); i++) {
+			h = 31 * h + keyword.charAt(i);
+		}
+		return h;
+	}
+
+	// helper, mixes the bits of a hash code, since slots are picked on its low
+	// bits and String hash codes of short keywords differ mostly in them
+	private static int spread(int h) {
+		h *= 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+
+	// helper, number of UTF-8 bytes of a keyword
+	private static int utf8Length(CharSequence keyword) {
+
+		int length = 0;
+		int n = keyword.length();
+		for (int i = 0; i < n; i++) {
+			char c = keyword.charAt(i);
+			if (c < 0x80) {
+				length++;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(keyword.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				length++;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	// helper, writes the UTF-8 bytes of a keyword to a buffer, unpaired
+	// surrogates as '?' like String.getBytes does, returns the offset after them
+	private static int encode(CharSequence keyword, ByteBuffer buffer, int at) {
+
+		int n = keyword.length();
+		for (int i = 0; i < n; i++) {
+			int c = keyword.charAt(i);
+			if (Character.isHighSurrogate((char) c) && i + 1 < n && Character.isLowSurrogate(keyword.charAt(i + 1))) {
+				c = Character.toCodePoint((char) c, keyword.charAt(++i));
+			} else if (Character.isSurrogate((char) c)) {
+				c = '?';
+			}
+			int length = c < 0x80 ? 1 : c < 0x800 ? 2 : c < 0x10000 ? 3 : 4;
+			for (int b = 0; b < length; b++) {
+				buffer.put(at++, utf8Byte(c, length, b));
+			}
+		}
+		return at;
+	}
+
+	// helper, byte b of the UTF-8 encoding of a code point that takes length
+	// bytes
+	private static byte utf8Byte(int c, int length, int b) {
+
+		if (length == 1) {
+			return (byte) c;
+		}
+		if (b == 0) {
+			int lead = length == 2 ? 0xc0 : length == 3 ? 0xe0 : 0xf0;
+			return (byte) (lead | (c >> (6 * (length - 1))));
+		}
+		return (byte) (0x80 | ((c >> (6 * (length - 1 - b))) & 0x3f));
+	}
+}
@@ -0,0 +1,531 @@
+package lse;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * This class scans documents for keywords in a single pass over their
+ * characters. It applies the same rules as LittleSearchEngine.getKeyword: a
+ * keyword is a word that, after being stripped of any trailing punctuation
+ * ('.', ',', '?', ':', ';' and '!'), consists only of alphabetic letters, and
+ * is not a noise word. Words are separated by white space, as with a Scanner.
+ *
+ * Every distinct word is looked up in a table of the words seen so far, straight
+ * from the characters of the document, so a String is only created the first
+ * time a keyword is seen, and never for a noise word. The table is emptied
+ * before a document once it holds MAX_ENTRIES words, so it does not grow with
+ * the vocabulary of a large corpus. A tokenizer is not thread safe, each thread
+ * must use its own, but threads can share its NoiseWordMatcher.
+ *
+ * In positional mode, the tokenizer also records the positions of each keyword
+ * in the Occurrence: the numbers of the words it occurs at, counting every word
+ * of the document from 0, including noise words and words that are not
+ * keywords.
+ *
+ */
+public class KeywordTokenizer {
+
+	/**
+	 * Number of words in the table past which it is emptied before the next
+	 * document.
+	 */
+	public static final int MAX_ENTRIES = 1 << 16;
+
+	// states of the word scanner
+	private static final int IN_WORD = 0;
+	private static final int IN_PUNCTUATION = 1;
+	private static final int REJECTED = 2;
+
+	/**
+	 * The noise words, which the words in the table were checked against.
+	 */
+	private NoiseWordMatcher noiseWords;
+
+	/**
+	 * Read buffer.
+	 */
+	private final char[] buffer = new char[8192];
+
+	/**
+	 * Lower case letters of the word being scanned.
+	 */
+	private char[] word = new char[32];
+
+	/**
+	 * Characters of all the words in the table, back to back.
+	 */
+	private char[] chars = new char[4096];
+
+	/**
+	 * Number of characters used in the chars array.
+	 */
+	private int charsUsed;
+
+	/**
+	 * Open addressing hash table, each slot is an entry number plus one, or 0 if
+	 * empty.
+	 */
+	private int[] slots = new int[1024];
+
+	// entries of the table, in parallel arrays
+	private int[] start = new int[512];
+	private int[] length = new int[512];
+	private int[] hash = new int[512];
+	private String[] keyword = new String[512];
+	private int[] count = new int[512];
+	private int[] stamp = new int[512];
+
+	// positions of the entries in the document being scanned, encoded as in
+	// Occurrence, with the number of bytes used and the last position
+	private byte[][] positions = new byte[512][];
+	private int[] positionsUsed = new int[512];
+	private int[] lastPosition = new int[512];
+
+	/**
+	 * Number of entries in the table.
+	 */
+	private int entries;
+
+	/**
+	 * Entries seen in the document being scanned, and their number.
+	 */
+	private int[] seen = new int[512];
+	private int seenCount;
+
+	/**
+	 * Number of the document being scanned, entries with an older stamp have not
+	 * been seen in it yet.
+	 */
+	private int document;
+
+	/**
+	 * True if positions are recorded.
+	 */
+	private boolean positional;
+
+	/**
+	 * Number of words scanned so far in the document.
+	 */
+	private int words;
+
+	/**
+	 * Number of noise words in the document, and nanoseconds spent looking words
+	 * up in the noise words while scanning it.
+	 */
+	private int noiseWordCount;
+	private long filterNanos;
+
+	/**
+	 * True if noise word lookups are timed.
+	 */
+	private boolean timed;
+
+	/**
+	 * Initializes this tokenizer with the given noise words. The words are
+	 * copied into a NoiseWordMatcher, so words added to the set later are not
+	 * taken into account, see setNoiseWords.
+	 *
+	 * @param noiseWords
+	 *            Noise words, in lower case
+	 */
+	public KeywordTokenizer(Set<String> noiseWords) {
+		this(NoiseWordMatcher.build(noiseWords));
+	}
+
+	/**
+	 * Initializes this tokenizer with the given noise words.
+	 *
+	 * @param noiseWords
+	 *            Noise words, which may be shared with other tokenizers
+	 */
+	public KeywordTokenizer(NoiseWordMatcher noiseWords) {
+		this.noiseWords = noiseWords;
+	}
+
+	/**
+	 * Sets the noise words of the documents scanned from now on. The table of
+	 * words seen so far is emptied if they are not the current ones.
+	 *
+	 * @param noiseWords
+	 *            Noise words, which may be shared with other tokenizers
+	 */
+	public void setNoiseWords(NoiseWordMatcher noiseWords) {
+
+		if (noiseWords != this.noiseWords) {
+
+			clear();
+			this.noiseWords = noiseWords;
+		}
+	}
+
+	/**
+	 * Empties the table of words seen so far, so that their Strings can be
+	 * garbage collected.
+	 */
+	public void clear() {
+
+		Arrays.fill(slots, 0);
+		Arrays.fill(keyword, 0, entries, null);
+		Arrays.fill(stamp, 0, entries, 0);
+		entries = 0;
+		charsUsed = 0;
+	}
+
+	/**
+	 * Sets whether the time spent looking words up in the noise words is
+	 * measured, see noiseFilterNanos. The clock is not read otherwise.
+	 *
+	 * @param timed
+	 *            True to measure the time
+	 */
+	public void setTimed(boolean timed) {
+		this.timed = timed;
+	}
+
+	/**
+	 * Sets whether the positions of keywords are recorded in the occurrences.
+	 *
+	 * @param positional
+	 *            True to record positions
+	 */
+	public void setPositional(boolean positional) {
+		this.positional = positional;
+	}
+
+	/**
+	 * Scans a document file, and loads all keywords found into a hash table of
+	 * keyword occurrences in the document. The file is read with the platform's
+	 * default charset, like a Scanner does.
+	 *
+	 * @param docFile
+	 *            Name of the document file to be scanned
+	 * @return Hash table of keywords in the given document, each associated with an
+	 *         Occurrence object
+	 * @throws FileNotFoundException
+	 *             If the document file is not found on disk
+	 * @throws IOException
+	 *             If the document file cannot be read
+	 */
+	public HashMap<String, Occurrence> loadKeywords(String docFile) throws IOException {
+
+		Reader in = new InputStreamReader(new FileInputStream(docFile), Charset.defaultCharset());
+		try {
+			return loadKeywords(in, docFile);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Scans a document, and loads all keywords found into a hash table of keyword
+	 * occurrences in the document.
+	 *
+	 * @param in
+	 *            Characters of the document, read to the end but not closed
+	 * @param docFile
+	 *            Name of the document, used in the Occurrence objects
+	 * @return Hash table of keywords in the given document, each associated with an
+	 *         Occurrence object
+	 * @throws IOException
+	 *             If the document cannot be read
+	 */
+	public HashMap<String, Occurrence> loadKeywords(Reader in, String docFile) throws IOException {
+
+		startDocument();
+
+		int state = IN_WORD;
+		int len = 0;
+		int h = 0;
+
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+
+			for (int i = 0; i < n; i++) {
+
+				char c = buffer[i];
+
+				if (Character.isWhitespace(c)) {
+
+					if (state != REJECTED && len > 0) {
+
+						countWord(len, h);
+					}
+					if (len > 0 || state != IN_WORD) {
+
+						// any word counts for positions, keyword or not
+						words++;
+					}
+					state = IN_WORD;
+					len = 0;
+					h = 0;
+
+				} else if (state == REJECTED) {
+
+					continue;
+
+				} else if (Character.isAlphabetic(c)) {
+
+					// a letter after punctuation, example: what,ever
+					if (state == IN_PUNCTUATION) {
+
+						state = REJECTED;
+					} else {
+
+						if (len == word.length) {
+
+							word = Arrays.copyOf(word, len * 2);
+						}
+						c = Character.toLowerCase(c);
+						word[len++] = c;
+						h = 31 * h + c;
+					}
+
+				} else if (isPunctuation(c)) {
+
+					state = IN_PUNCTUATION;
+
+				} else {
+
+					state = REJECTED;
+				}
+			}
+		}
+
+		if (state != REJECTED && len > 0) {
+
+			countWord(len, h);
+		}
+		if (len > 0 || state != IN_WORD) {
+
+			words++;
+		}
+
+		return endDocument(docFile);
+	}
+
+	/**
+	 * Returns the number of words in the last document scanned, keywords or not.
+	 *
+	 * @return Number of words
+	 */
+	public int wordCount() {
+		return words;
+	}
+
+	/**
+	 * Returns the number of noise words in the last document scanned.
+	 *
+	 * @return Number of noise words
+	 */
+	public int noiseWordCount() {
+		return noiseWordCount;
+	}
+
+	/**
+	 * Returns the time spent looking words of the last document scanned up in the
+	 * noise words. Each distinct word is looked up once, the first time any
+	 * document has it, so this is mostly spent on the first documents. It is only
+	 * measured if the tokenizer is timed.
+	 *
+	 * @return Nanoseconds, 0 if the tokenizer is not timed
+	 */
+	public long noiseFilterNanos() {
+		return filterNanos;
+	}
+
+	/**
+	 * Returns whether a character is one of the punctuation characters that may
+	 * trail a keyword.
+	 *
+	 * @param c
+	 *            Character
+	 * @return True if c is one of '.', ',', '?', ':', ';' and '!'
+	 */
+	static boolean isPunctuation(char c) {
+		return c == '.' || c == ',' || c == '?' || c == ':' || c == ';' || c == '!';
+	}
+
+	// helper for loadKeywords, moves on to the next document, emptying the table
+	// if it is full
+	private void startDocument() {
+
+		if (entries >= MAX_ENTRIES) {
+
+			clear();
+		}
+
+		seenCount = 0;
+		words = 0;
+		noiseWordCount = 0;
+		filterNanos = 0;
+		document++;
+		if (document == 0) {
+
+			// stamps wrapped around
+			Arrays.fill(stamp, 0, entries, 0);
+			document = 1;
+		}
+	}
+
+	// helper for loadKeywords, builds the occurrences of the document
+	private HashMap<String, Occurrence> endDocument(String docFile) {
+
+		HashMap<String, Occurrence> keyWords = new HashMap<String, Occurrence>(1000, 2.0f);
+		for (int i = 0; i < seenCount; i++) {
+
+			int e = seen[i];
+			if (keyword[e] != null) {
+
+				keyWords.put(keyword[e], positional
+						? new Occurrence(docFile, count[e], Arrays.copyOf(positions[e], positionsUsed[e]))
+						: new Occurrence(docFile, count[e]));
+			}
+		}
+		return keyWords;
+	}
+
+	// helper for loadKeywords, counts the word in the word array
+	private void countWord(int len, int h) {
+
+		int e = find(len, h);
+		if (stamp[e] != document) {
+
+			stamp[e] = document;
+			count[e] = 0;
+			if (seenCount == seen.length) {
+
+				seen = Arrays.copyOf(seen, seenCount * 2);
+			}
+			seen[seenCount++] = e;
+			positionsUsed[e] = 0;
+			lastPosition[e] = 0;
+		}
+		count[e]++;
+
+		if (keyword[e] == null) {
+
+			noiseWordCount++;
+		} else if (positional) {
+
+			addPosition(e);
+		}
+	}
+
+	// helper for countWord, appends the position of the current word to the
+	// positions of an entry
+	private void addPosition(int e) {
+
+		byte[] bytes = positions[e];
+		if (bytes == null) {
+
+			bytes = positions[e] = new byte[16];
+		} else if (positionsUsed[e] + 5 > bytes.length) {
+
+			bytes = positions[e] = Arrays.copyOf(bytes, bytes.length * 2);
+		}
+		positionsUsed[e] = CompressedPostings.writeVarint(bytes, positionsUsed[e], words - lastPosition[e]);
+		lastPosition[e] = words;
+	}
+
+	// helper for countWord, finds the entry of the word in the word array, adding
+	// it to the table if it is new
+	private int find(int len, int h) {
+
+		int mask = slots.length - 1;
+		int slot = (h ^ (h >>> 16)) & mask;
+
+		while (slots[slot] != 0) {
+
+			int e = slots[slot] - 1;
+			if (hash[e] == h && length[e] == len && sameChars(start[e], len)) {
+
+				return e;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		int e = addEntry(len, h);
+		slots[slot] = e + 1;
+
+		if (entries * 2 > slots.length) {
+
+			rehash();
+		}
+		return e;
+	}
+
+	// helper for find, compares the word array with the characters of an entry
+	private boolean sameChars(int from, int len) {
+
+		for (int i = 0; i < len; i++) {
+
+			if (chars[from + i] != word[i]) {
+
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// helper for find, adds the word array to the table
+	private int addEntry(int len, int h) {
+
+		if (entries == start.length) {
+
+			int cap = entries * 2;
+			start = Arrays.copyOf(start, cap);
+			length = Arrays.copyOf(length, cap);
+			hash = Arrays.copyOf(hash, cap);
+			keyword = Arrays.copyOf(keyword, cap);
+			count = Arrays.copyOf(count, cap);
+			stamp = Arrays.copyOf(stamp, cap);
+			positions = Arrays.copyOf(positions, cap);
+			positionsUsed = Arrays.copyOf(positionsUsed, cap);
+			lastPosition = Arrays.copyOf(lastPosition, cap);
+		}
+		if (charsUsed + len > chars.length) {
+
+			chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charsUsed + len));
+		}
+
+		System.arraycopy(word, 0, chars, charsUsed, len);
+
+		int e = entries++;
+		start[e] = charsUsed;
+		length[e] = len;
+		hash[e] = h;
+		stamp[e] = 0;
+
+		// the only place a String is made, null marks a noise word
+		boolean noise;
+		if (timed) {
+			long lookup = System.nanoTime();
+			noise = noiseWords.contains(word, 0, len);
+			filterNanos += System.nanoTime() - lookup;
+		} else {
+			noise = noiseWords.contains(word, 0, len);
+		}
+		keyword[e] = noise ? null : new String(word, 0, len);
+
+		charsUsed += len;
+		return e;
+	}
+
+	// helper for find, doubles the hash table
+	private void rehash() {
+
+		slots = new int[slots.length * 2];
+		int mask = slots.length - 1;
+
+		for (int e = 0; e < entries; e++) {
+
+			int slot = (hash[e] ^ (hash[e] >>> 16)) & mask;
+			while (slots[slot] != 0) {
+
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = e + 1;
+		}
+	}
+}
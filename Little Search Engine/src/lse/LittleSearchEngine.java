@@ -1,39 +1,139 @@
 package lse;
 
 import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
 
 /**
  * This class builds an index of keywords. Each keyword maps to a set of pages
  * in which it occurs, with frequency of occurrence in each page.
  *
+ * Searches can run on any number of threads while documents are being indexed.
+ * Methods that change the index are synchronized, and publish a new
+ * IndexSnapshot when they are done. Searches read the latest snapshot, without
+ * locking, so they never wait for indexing and never see half of a change.
+ *
  */
 public class LittleSearchEngine {
 
 	/**
 	 * This is a hash table of all keywords. The key is the actual keyword, and the
-	 * associated value is an array list of all occurrences of the keyword in
-	 * documents. The array list is maintained in DESCENDING order of frequencies.
+	 * associated value holds the postings of the keyword: the ids of the documents
+	 * it occurs in, with its frequency in each. The postings are maintained in
+	 * DESCENDING order of frequencies. The keywords themselves are kept off the
+	 * heap, see KeywordTable.
+	 */
+	KeywordTable keywordsIndex;
+
+	/**
+	 * The table of document ids used in the postings.
 	 */
-	HashMap<String, ArrayList<Occurrence>> keywordsIndex;
+	DocumentTable documents;
 
 	/**
-	 * The hash set of all noise words.
+	 * The hash set of all noise words. Words are only added with addNoiseWords,
+	 * which builds the matcher again.
 	 */
 	HashSet<String> noiseWords;
 
 	/**
-	 * Creates the keyWordsIndex and noiseWords hash tables.
+	 * Matcher of the noise words, shared by all the tokenizers. It is only built
+	 * under the lock of the engine, by addNoiseWords, and is never changed, so
+	 * threads that scan or look up words read this field and nothing else.
+	 */
+	private volatile NoiseWordMatcher noiseWordMatcher;
+
+	/**
+	 * The version of the index searches run on, replaced every time the index
+	 * changes.
+	 */
+	private volatile IndexSnapshot snapshot;
+
+	/**
+	 * The keyword tables shared by the snapshots: a copy of keywordsIndex, and the
+	 * keywords changed since it was copied. Only changed while the engine is
+	 * locked.
+	 */
+	private KeywordTable publishedBase;
+	private HashMap<String, Postings> publishedChanges;
+
+	/**
+	 * Sorted dictionary of the keywords in publishedBase, for patterns.
+	 */
+	private TermDictionary publishedTerms;
+
+	/**
+	 * Maximum number of keywords a pattern expands to in searches.
+	 */
+	private volatile int maxExpansions = TermDictionary.MAX_EXPANSIONS;
+
+	/**
+	 * Cache of top5search results, or null if results are not cached.
+	 */
+	private volatile QueryCache queryCache = new QueryCache(1024);
+
+	/**
+	 * True if the positions of keywords are recorded, for phrase searches.
+	 */
+	private volatile boolean positional;
+
+	/**
+	 * Number of Occurrences kept by the content cache of an indexing run, or 0
+	 * to scan every document.
+	 */
+	private volatile int contentCacheSize = ContentCache.DEFAULT_SIZE;
+
+	/**
+	 * Listener that receives measurements of indexing and searches, or null if
+	 * none are taken.
+	 */
+	private volatile MetricsListener metrics;
+
+	/**
+	 * Index file opened by openIndex, or null. Searches look keywords up in this
+	 * file, the index reads it all in before it is changed.
+	 */
+	private IndexFile indexFile;
+
+	/**
+	 * Fraction of the document ids taken by removed documents at which the index
+	 * is compacted in the background.
+	 */
+	private static final double COMPACTION_THRESHOLD = 0.25;
+
+	/**
+	 * True while a compaction is waiting to run in the background.
+	 */
+	private boolean compactionScheduled;
+
+	/**
+	 * Keyword tokenizers, one per thread scanning documents.
+	 */
+	private final ThreadLocal<KeywordTokenizer> tokenizers = new ThreadLocal<KeywordTokenizer>() {
+		protected KeywordTokenizer initialValue() {
+			return new KeywordTokenizer(noiseWordMatcher);
+		}
+	};
+
+	/**
+	 * Creates the keyWordsIndex and noiseWords hash tables, and the document
+	 * table.
 	 */
 	public LittleSearchEngine() {
-		keywordsIndex = new HashMap<String, ArrayList<Occurrence>>(1000, 2.0f);
+		keywordsIndex = new KeywordTable();
+		documents = new DocumentTable();
 		noiseWords = new HashSet<String>(100, 2.0f);
+		noiseWordMatcher = NoiseWordMatcher.build(noiseWords);
+		publish(null, 0);
 	}
 
 	/**
 	 * Scans a document, and loads all keywords found into a hash table of keyword
-	 * occurrences in the document. Uses the getKeyWord method to separate keywords
-	 * from other words.
+	 * occurrences in the document. Keywords are separated from other words with
+	 * the same rules as the getKeyWord method, by this thread's KeywordTokenizer.
 	 * 
 	 * @param docFile
 	 *            Name of the document file to be scanned and loaded
@@ -46,75 +146,266 @@ public class LittleSearchEngine {
 
 		try {
 
-			Scanner temp = new Scanner(new File(docFile));
+			Reader in = new InputStreamReader(new FileInputStream(docFile), Charset.defaultCharset());
+			try {
+
+				return scanDocument(in, docFile);
+			} finally {
+
+				in.close();
+			}
+
+		} catch (FileNotFoundException e) {
 
-		} catch (Exception e) {
+			throw e;
 
-			throw new FileNotFoundException();
+		} catch (IOException e) {
+
+			throw new UncheckedIOException(e);
 		}
+	}
 
-		HashMap<String, Occurrence> keyWords = new HashMap<String, Occurrence>(1000, 2.0f);
+	// helper, scans a document with this thread's tokenizer
+	private HashMap<String, Occurrence> scanDocument(Reader in, String docFile) throws IOException {
 
-		Scanner sc = new Scanner(new File(docFile));
+		KeywordTokenizer tokenizer = tokenizers.get();
+		tokenizer.setPositional(positional);
+		tokenizer.setNoiseWords(noiseWordMatcher);
 
-		while (sc.hasNext()) {
+		MetricsListener listener = metrics;
+		tokenizer.setTimed(listener != null);
+		if (listener == null) {
 
-			String curr = sc.next();
-			String newCurr = getKeyword(curr);
+			return tokenizer.loadKeywords(in, docFile);
+		}
+		long start = System.nanoTime();
+		HashMap<String, Occurrence> kws = tokenizer.loadKeywords(in, docFile);
+		listener.documentScanned(tokenizer.wordCount(), tokenizer.noiseWordCount(), System.nanoTime() - start,
+				tokenizer.noiseFilterNanos());
+		return kws;
+	}
 
-			if (newCurr != null) {
+	/**
+	 * Merges the keywords for a single document into the master keywordsIndex hash
+	 * table. The document is given an id in the document table. For each keyword,
+	 * a posting for the current document is inserted in the correct place
+	 * (according to descending order of frequency) in the same keyword's postings
+	 * in the master hash table.
+	 * 
+	 * @param kws
+	 *            Keywords hash table for a document
+	 */
+	public synchronized void mergeKeywords(HashMap<String, Occurrence> kws) {
 
-				newCurr = newCurr.toLowerCase();
-			}
+		MetricsListener listener = metrics;
+		long start = listener == null ? 0 : System.nanoTime();
 
-			// already exists in keyWord file
-			if (newCurr != null && keyWords.containsKey(newCurr)) {
+		loadIndexFile();
+		mergeDocument(null, kws);
 
-				// update the number frequency
-				keyWords.get(newCurr).frequency = keyWords.get(newCurr).frequency + 1;
+		if (listener != null) {
 
-				// if this is the first occurrence of it
-			} else if (newCurr != null && (getKeyword(newCurr).equals(newCurr))) {
+			long merged = System.nanoTime();
+			listener.keywordsMerged(1, kws.size(), merged - start);
+			listener.documentsIndexed(1, merged - start);
+		}
+		publish(kws.keySet(), snapshot.version + 1);
+	}
 
-				Occurrence currOb = new Occurrence(docFile, 1);
+	// helper for mergeKeywords and indexDocument, merges the keywords of a
+	// document into keywordsIndex, without publishing them. A document with no
+	// keywords is only recorded if its name is given
+	private void mergeDocument(String docFile, HashMap<String, Occurrence> kws) {
 
-				keyWords.put(newCurr, currOb);
+		int docId = docFile == null ? -1 : documents.add(docFile);
+		int length = 0;
+		for (String key : kws.keySet()) {
 
-			}
+			Occurrence occ = kws.get(key);
+			docId = documents.add(occ.document);
+			mergeKeyword(keywordsIndex, key, docId, occ);
+			length += occ.frequency;
 		}
 
-		sc.close();
+		if (docId >= 0) {
 
-		return keyWords;
+			documents.setLength(docId, length);
+		}
 	}
 
 	/**
-	 * Merges the keywords for a single document into the master keywordsIndex hash
-	 * table. For each keyword, its Occurrence in the current document must be
-	 * inserted in the correct place (according to descending order of frequency) in
-	 * the same keyword's Occurrence list in the master hash table. This is done by
-	 * calling the insertLastOccurrence method.
+	 * Adds a single document to the index, without indexing the others again. The
+	 * document is scanned without locking the index, then each of its keywords'
+	 * postings is inserted in its place, as mergeKeywords does, so the postings
+	 * stay in DESCENDING order of frequencies without being sorted again.
 	 * 
-	 * @param kws
-	 *            Keywords hash table for a document
+	 * @param docFile
+	 *            Name of the document file
+	 * @throws FileNotFoundException
+	 *             If the document file is not found on disk
+	 * @throws IllegalArgumentException
+	 *             If the document is already in the index, see updateDocument
 	 */
-	public void mergeKeywords(HashMap<String, Occurrence> kws) {
+	public void addDocument(String docFile) throws FileNotFoundException {
 
-		for (String key : kws.keySet()) {
+		indexDocument(docFile, false);
+	}
+
+	/**
+	 * Indexes the current contents of a document again, replacing the postings
+	 * it had. The old postings are removed as removeDocument removes them, and the
+	 * new ones added as addDocument adds them, in a single change: searches see
+	 * either the old document or the new one. The document gets a new id, so it
+	 * loses ties on frequency to the documents indexed before it. A document that
+	 * is not in the index is added.
+	 * 
+	 * @param docFile
+	 *            Name of the document file
+	 * @throws FileNotFoundException
+	 *             If the document file is not found on disk
+	 */
+	public void updateDocument(String docFile) throws FileNotFoundException {
+
+		indexDocument(docFile, true);
+	}
 
-			if (keywordsIndex.containsKey(key)) {
+	// helper for addDocument and updateDocument, scans a document, then swaps its
+	// postings in
+	private void indexDocument(String docFile, boolean update) throws FileNotFoundException {
 
-				ArrayList<Occurrence> occ = keywordsIndex.get(key);
-				occ.add(kws.get(key));
-				keywordsIndex.put(key, occ);
-				insertLastOccurrence(occ);
+		MetricsListener listener = metrics;
+		long start = listener == null ? 0 : System.nanoTime();
 
-			} else {
-				ArrayList<Occurrence> occ = new ArrayList<Occurrence>();
-				occ.add(kws.get(key));
-				keywordsIndex.put(key, occ);
+		HashMap<String, Occurrence> kws = loadKeywordsFromDocument(docFile);
+
+		synchronized (this) {
+
+			loadIndexFile();
+			if (documents.idOf(docFile) >= 0) {
+
+				if (!update) {
+					throw new IllegalArgumentException("Document is already in the index: " + docFile);
+				}
+				documents.remove(docFile);
+			}
+
+			long mergeStart = listener == null ? 0 : System.nanoTime();
+			mergeDocument(docFile, kws);
+			if (listener != null) {
+
+				long merged = System.nanoTime();
+				listener.keywordsMerged(1, kws.size(), merged - mergeStart);
+				listener.documentsIndexed(1, merged - start);
+			}
+			publish(kws.keySet(), snapshot.version + 1);
+			compactLater();
+		}
+	}
+
+	/**
+	 * Removes a document from the index. The document is only marked as removed,
+	 * which takes constant time: searches leave it out from then on, and its
+	 * postings stay in the index until it is compacted. Once removed documents
+	 * take up a quarter of the document ids, the index is compacted in the
+	 * background, see compact.
+	 * 
+	 * @param docFile
+	 *            Name of the document file
+	 * @return True if the document was in the index
+	 */
+	public synchronized boolean removeDocument(String docFile) {
+
+		loadIndexFile();
+		if (documents.remove(docFile) < 0) {
+
+			return false;
+		}
+
+		publish(Collections.<String>emptyList(), snapshot.version + 1);
+		compactLater();
+		return true;
+	}
+
+	/**
+	 * Compacts the index: drops the postings of removed documents, and the
+	 * keywords left without postings, which patterns no longer expand to. The
+	 * remaining documents are given new ids in the same order as before, so every
+	 * keyword's postings are only filtered, and stay in DESCENDING order of
+	 * frequencies without being sorted again. Searches go on while the index is
+	 * compacted, on the previous snapshot.
+	 */
+	public synchronized void compact() {
+
+		if (documents.removedCount() == 0) {
+
+			return;
+		}
+
+		int[] newIds = documents.compact();
+		KeywordTable compacted = new KeywordTable();
+		for (Map.Entry<String, Postings> entry : keywordsIndex.entrySet()) {
+
+			Postings postings = entry.getValue().compact(newIds);
+			if (postings.size() > 0) {
+				compacted.put(entry.getKey(), postings);
 			}
 		}
+		keywordsIndex = compacted;
+		publish(null, snapshot.version + 1);
+	}
+
+	// helper, compacts the index in the background once removed documents take
+	// up COMPACTION_THRESHOLD of the document ids
+	private void compactLater() {
+
+		if (compactionScheduled || documents.removedCount() < COMPACTION_THRESHOLD * documents.size()) {
+
+			return;
+		}
+
+		// a thread of its own, which ends with the compaction
+		compactionScheduled = true;
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				synchronized (LittleSearchEngine.this) {
+					compactionScheduled = false;
+					compact();
+				}
+			}
+		}, "lse-compactor");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	// helper for makeIndex, appends one keyword's posting to the given index, to
+	// be sorted later
+	private static void appendKeyword(Map<String, Postings> index, String key, int docId, Occurrence occ) {
+
+		writablePostings(index, key).append(docId, occ.frequency, occ.positions);
+	}
+
+	// helper for mergeKeywords, merges one keyword's posting into the given index
+	private static void mergeKeyword(Map<String, Postings> index, String key, int docId, Occurrence occ) {
+
+		writablePostings(index, key).add(docId, occ.frequency, occ.positions);
+	}
+
+	// helper, returns postings of a keyword that can be changed, replacing
+	// postings that searches may be reading with a copy
+	private static Postings writablePostings(Map<String, Postings> index, String key) {
+
+		Postings postings = index.get(key);
+		if (postings == null) {
+
+			postings = new Postings();
+			index.put(key, postings);
+
+		} else if (postings.isFrozen()) {
+
+			postings = postings.copy();
+			index.put(key, postings);
+		}
+		return postings;
 	}
 
 	/**
@@ -134,7 +425,7 @@ public class LittleSearchEngine {
 		String finalWord = wordTest(word);
 
 		// if word is a noise word Example: the
-		if (noiseWords.contains(finalWord)) {
+		if (finalWord != null && noiseWordMatcher.contains(finalWord)) {
 
 			return null;
 
@@ -212,7 +503,7 @@ public class LittleSearchEngine {
 	 * the list, based on ordering occurrences on descending frequencies. The
 	 * elements 0..n-2 in the list are already in the correct order. Insertion is
 	 * done by first finding the correct spot using binary search, then inserting at
-	 * that spot.
+	 * that spot. An occurrence is inserted after the ones with the same frequency.
 	 * 
 	 * @param occs
 	 *            List of Occurrences
@@ -241,11 +532,17 @@ public class LittleSearchEngine {
 		while (high >= low) {
 
 			middle = (low + high) / 2;
-			System.out.println(middle);
 			mids.add(middle);
 
 			if (occs.get(middle).frequency == key.frequency) {
 
+				// insert after the occurrences with the same frequency, the same
+				// place Postings.add puts it
+				low = middle + 1;
+				while (low < occs.size() - 1 && occs.get(low).frequency == key.frequency) {
+
+					low++;
+				}
 				break;
 			}
 
@@ -276,6 +573,9 @@ public class LittleSearchEngine {
 	 * keywords, each of which is associated with an array list of Occurrence
 	 * objects, arranged in decreasing frequencies of occurrence.
 	 * 
+	 * Postings are built in bulk: each document's postings are appended to the
+	 * keywords' lists, and every list is sorted once at the end.
+	 * 
 	 * @param docsFile
 	 *            Name of file that has a list of all the document file names, one
 	 *            name per line
@@ -285,119 +585,1171 @@ public class LittleSearchEngine {
 	 * @throws FileNotFoundException
 	 *             If there is a problem locating any of the input files on disk
 	 */
-	public void makeIndex(String docsFile, String noiseWordsFile) throws FileNotFoundException {
+	public synchronized void makeIndex(String docsFile, String noiseWordsFile) throws FileNotFoundException {
 		// load noise words to hash table
-		Scanner sc = new Scanner(new File(noiseWordsFile));
-		while (sc.hasNext()) {
-			String word = sc.next();
-			noiseWords.add(word);
-		}
+		loadNoiseWords(noiseWordsFile);
 
-		// index all keywords
-		sc = new Scanner(new File(docsFile));
+		ArrayList<String> docFiles = new ArrayList<String>();
+		Scanner sc = new Scanner(new File(docsFile));
 		while (sc.hasNext()) {
-			String docFile = sc.next();
-			HashMap<String, Occurrence> kws = loadKeywordsFromDocument(docFile);
-			mergeKeywords(kws);
+			docFiles.add(sc.next());
 		}
 		sc.close();
+
+		indexDocuments(docFiles);
 	}
 
 	/**
-	 * Search result for "kw1 or kw2". A document is in the result set if kw1 or kw2
-	 * occurs in that document. Result set is arranged in descending order of
-	 * document frequencies. (Note that a matching document will only appear once in
-	 * the result.) Ties in frequency values are broken in favor of the first
-	 * keyword. (That is, if kw1 is in doc1 with frequency f1, and kw2 is in doc2
-	 * also with the same frequency f1, then doc1 will take precedence over doc2 in
-	 * the result. The result set is limited to 5 entries. If there are no matches
-	 * at all, result is null.
+	 * Indexes all keywords found in the given documents, in bulk, like makeIndex
+	 * does. Noise words must already be loaded.
 	 * 
-	 * @param kw1
-	 *            First keyword
-	 * @param kw1
-	 *            Second keyword
-	 * @return List of documents in which either kw1 or kw2 occurs, arranged in
-	 *         descending order of frequencies. The result size is limited to 5
-	 *         documents. If there are no matches, returns null.
+	 * @param docFiles
+	 *            Names of the document files, in the order they are indexed in
+	 * @throws FileNotFoundException
+	 *             If there is a problem locating any of the documents on disk
 	 */
-	public ArrayList<String> top5search(String kw1, String kw2) {
+	public synchronized void indexDocuments(Collection<String> docFiles) throws FileNotFoundException {
+
+		MetricsListener listener = metrics;
+		long start = listener == null ? 0 : System.nanoTime();
+		long mergeNanos = 0;
+		int merged = 0;
 
-		ArrayList<String> top5 = new ArrayList<String>();
+		loadIndexFile();
+		ContentCache contents = newContentCache();
+		ArrayBlockingQueue<byte[]> buffers = new ArrayBlockingQueue<byte[]>(1);
 
-		ArrayList<Occurrence> first = keywordsIndex.get(kw1);
-		ArrayList<Occurrence> second = keywordsIndex.get(kw2);
+		// index all keywords
+		for (String docFile : docFiles) {
+			HashMap<String, Occurrence> kws = loadKeywords(docFile, contents, buffers);
+			long mergeStart = listener == null ? 0 : System.nanoTime();
+			appendDocument(docFile, kws);
+			if (listener != null) {
+				mergeNanos += System.nanoTime() - mergeStart;
+				merged += kws.size();
+			}
+		}
+
+		long sortStart = listener == null ? 0 : System.nanoTime();
+		for (Postings postings : keywordsIndex.values()) {
+			postings.sort();
+		}
+		if (listener != null) {
+			long sorted = System.nanoTime();
+			listener.keywordsMerged(docFiles.size(), merged, mergeNanos);
+			listener.postingsSorted(keywordsIndex.size(), sorted - sortStart);
+			listener.documentsIndexed(docFiles.size(), sorted - start);
+		}
+		publish(null, snapshot.version + 1);
+		// the words of the run are not kept on this thread, tokenizers of other
+		// threads are bounded by KeywordTokenizer.MAX_ENTRIES
+		tokenizers.remove();
+	}
 
-		if (first == null && second == null) {
+	// helper for bulk indexing, gives a document an id and appends its
+	// postings, to be sorted later
+	private void appendDocument(String docFile, HashMap<String, Occurrence> kws) {
 
-			return null;
+		int docId = documents.add(docFile);
+		int length = 0;
+		for (String key : kws.keySet()) {
+			appendKeyword(keywordsIndex, key, docId, kws.get(key));
+			length += kws.get(key).frequency;
+		}
+		documents.setLength(docId, length);
+	}
+
+	/**
+	 * Pipelined version of makeIndex, for documents that are slow to read, such
+	 * as on a network file system. See indexDocuments(Iterator, Executor,
+	 * ExecutorService, int).
+	 * 
+	 * @param docsFile
+	 *            Name of file that has a list of all the document file names, one
+	 *            name per line
+	 * @param noiseWordsFile
+	 *            Name of file that has a list of noise words, one noise word per
+	 *            line
+	 * @param readers
+	 *            Executor on which documents are read, e.g. a virtual thread
+	 *            executor or a cached thread pool
+	 * @param workers
+	 *            Number of threads that scan documents for keywords
+	 * @param capacity
+	 *            Maximum number of documents read, scanned or waiting to be
+	 *            merged at any time
+	 * @throws FileNotFoundException
+	 *             If there is a problem locating any of the input files on disk
+	 */
+	public synchronized void makeIndex(String docsFile, String noiseWordsFile, Executor readers, int workers,
+			int capacity) throws FileNotFoundException {
+
+		loadNoiseWords(noiseWordsFile);
+
+		ExecutorService pool = Executors.newFixedThreadPool(workers);
+		Scanner sc = new Scanner(new File(docsFile));
+		try {
+			indexDocuments(sc, readers, pool, capacity);
+		} finally {
+			sc.close();
+			pool.shutdown();
 		}
+	}
+
+	/**
+	 * Indexes documents in a pipeline of three stages, so that reading documents
+	 * overlaps with scanning them. Documents are read into byte buffers on the
+	 * readers, which may block on I/O, then scanned for keywords on the workers,
+	 * and merged into the index on this thread, in the order they are listed in,
+	 * so the index is the same as the one built by indexDocuments(Collection).
+	 * At most capacity documents are in the pipeline at any time, so memory stays
+	 * bounded however fast documents are read: a document is only read once the
+	 * first one in the pipeline has been merged. Buffers are reused from one
+	 * document to the next.
+	 * 
+	 * @param docFiles
+	 *            Names of the document files, in the order they are indexed in
+	 * @param readers
+	 *            Executor on which documents are read, e.g. a virtual thread
+	 *            executor or a cached thread pool
+	 * @param workers
+	 *            Executor on which documents are scanned, with about as many
+	 *            threads as there are processors
+	 * @param capacity
+	 *            Maximum number of documents read, scanned or waiting to be
+	 *            merged at any time
+	 * @throws FileNotFoundException
+	 *             If there is a problem locating any of the documents on disk
+	 */
+	public synchronized void indexDocuments(Iterator<String> docFiles, Executor readers, ExecutorService workers,
+			int capacity) throws FileNotFoundException {
 
-		int fCount = 0;
-		int sCount = 0;
+		if (capacity < 1) {
 
-		while ((first != null && first.size() > fCount) && (second != null && second.size() > sCount)
-				&& top5.size() < 5) {
+			throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+		}
 
-			if (first.get(fCount).frequency > second.get(sCount).frequency) {
+		MetricsListener listener = metrics;
+		long start = listener == null ? 0 : System.nanoTime();
+		long mergeNanos = 0;
+		int merged = 0;
+		int indexed = 0;
 
-				if (!top5.contains(first.get(fCount).document)) {
+		loadIndexFile();
+		final ContentCache contents = newContentCache();
 
-					top5.add((first.get(fCount).document));
+		final ArrayBlockingQueue<byte[]> buffers = new ArrayBlockingQueue<byte[]>(capacity);
+		ArrayDeque<String> names = new ArrayDeque<String>(capacity);
+		ArrayDeque<Future<HashMap<String, Occurrence>>> pipeline = new ArrayDeque<Future<HashMap<String, Occurrence>>>(
+				capacity);
 
+		try {
+			while (docFiles.hasNext() || !pipeline.isEmpty()) {
+
+				if (docFiles.hasNext() && pipeline.size() < capacity) {
+
+					final String docFile = docFiles.next();
+					names.add(docFile);
+					pipeline.add(CompletableFuture.supplyAsync(new Supplier<DocumentBytes>() {
+						public DocumentBytes get() {
+							return readDocument(docFile, buffers);
+						}
+					}, readers).thenApplyAsync(new Function<DocumentBytes, HashMap<String, Occurrence>>() {
+						public HashMap<String, Occurrence> apply(DocumentBytes read) {
+							return scanDocument(read, buffers, contents);
+						}
+					}, workers));
+					continue;
 				}
-				fCount++;
 
+				HashMap<String, Occurrence> kws = await(pipeline.poll());
+				long mergeStart = listener == null ? 0 : System.nanoTime();
+				appendDocument(names.poll(), kws);
+				indexed++;
+				if (listener != null) {
+					mergeNanos += System.nanoTime() - mergeStart;
+					merged += kws.size();
+				}
+			}
+		} finally {
+			// documents read after a failure are left out
+			for (Future<HashMap<String, Occurrence>> f : pipeline) {
+				f.cancel(false);
 			}
+		}
+
+		long sortStart = listener == null ? 0 : System.nanoTime();
+		for (Postings postings : keywordsIndex.values()) {
+			postings.sort();
+		}
+		if (listener != null) {
+			long sorted = System.nanoTime();
+			listener.keywordsMerged(indexed, merged, mergeNanos);
+			listener.postingsSorted(keywordsIndex.size(), sorted - sortStart);
+			listener.documentsIndexed(indexed, sorted - start);
+		}
+		publish(null, snapshot.version + 1);
+	}
+
+	/**
+	 * The bytes of a document, read by the pipeline.
+	 */
+	private static class DocumentBytes {
 
-			else if (second.get(sCount).frequency > first.get(fCount).frequency) {
+		final String docFile;
+		final byte[] bytes;
+		final int length;
 
-				if (!top5.contains(second.get(sCount).document)) {
+		DocumentBytes(String docFile, byte[] bytes, int length) {
+			this.docFile = docFile;
+			this.bytes = bytes;
+			this.length = length;
+		}
+	}
 
-					top5.add((second.get(sCount).document));
+	// helper for bulk indexing, reads and scans a document on this thread, see
+	// scanDocument(DocumentBytes, ArrayBlockingQueue, ContentCache)
+	private HashMap<String, Occurrence> loadKeywords(String docFile, ContentCache contents,
+			ArrayBlockingQueue<byte[]> buffers) throws FileNotFoundException {
 
-				}
-				sCount++;
+		if (contents == null) {
+			return loadKeywordsFromDocument(docFile);
+		}
+		try {
+			return scanDocument(readDocument(docFile, buffers), buffers, contents);
+		} catch (UncheckedIOException e) {
+			if (e.getCause() instanceof FileNotFoundException) {
+				throw (FileNotFoundException) e.getCause();
 			}
+			throw e;
+		}
+	}
+
+	// helper for bulk indexing, a content cache for one run, or null if
+	// documents are all scanned
+	private ContentCache newContentCache() {
 
-			else {
+		int size = contentCacheSize;
+		return size > 0 ? new ContentCache(size) : null;
+	}
 
-				if (!top5.contains(first.get(fCount).document)) {
+	// helper for the pipeline, reads a document into a buffer from the pool
+	private static DocumentBytes readDocument(String docFile, ArrayBlockingQueue<byte[]> buffers) {
 
-					top5.add((first.get(fCount).document));
+		byte[] bytes = buffers.poll();
+		if (bytes == null) {
+			bytes = new byte[1 << 16];
+		}
 
+		try {
+			InputStream in = new FileInputStream(docFile);
+			try {
+				int length = 0;
+				int n;
+				while ((n = in.read(bytes, length, bytes.length - length)) != -1) {
+					length += n;
+					if (length == bytes.length) {
+						bytes = Arrays.copyOf(bytes, bytes.length * 2);
+					}
 				}
-				fCount++;
-				sCount++;
+				return new DocumentBytes(docFile, bytes, length);
+			} finally {
+				in.close();
 			}
+		} catch (IOException e) {
+			buffers.offer(bytes);
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// helper for bulk indexing, scans a document that was read, or copies the
+	// keywords of a document with the same contents, and gives its buffer back
+	// to the pool, unless a very large document made it grow
+	private HashMap<String, Occurrence> scanDocument(DocumentBytes read, ArrayBlockingQueue<byte[]> buffers,
+			ContentCache contents) {
 
+		try {
+			ContentCache.Key key = contents == null ? null : ContentCache.key(read.bytes, read.length);
+			HashMap<String, Occurrence> kws = key == null ? null : contents.get(key, read.docFile);
+			if (kws == null) {
+				kws = scanDocument(new InputStreamReader(new ByteArrayInputStream(read.bytes, 0, read.length),
+						Charset.defaultCharset()), read.docFile);
+				if (key != null) {
+					contents.put(key, kws);
+				}
+			}
+			return kws;
+		} catch (IOException e) {
+			// bytes in memory cannot fail to be read
+			throw new UncheckedIOException(e);
+		} finally {
+			if (read.bytes.length <= 1 << 20) {
+				buffers.offer(read.bytes);
+			}
 		}
+	}
+
+	/**
+	 * Parallel version of makeIndex. Documents are scanned for keywords at the same
+	 * time on the given pool, a batch at a time. Each batch is then merged into the
+	 * master keywordsIndex by partitioning the keywords on their hash, and merging
+	 * every partition on its own task. Within a partition, documents are merged in
+	 * the order in which they are listed in docsFile, and the postings of each
+	 * partition are sorted once at the end, so the resulting index is identical to
+	 * the one built by makeIndex.
+	 * 
+	 * @param docsFile
+	 *            Name of file that has a list of all the document file names, one
+	 *            name per line
+	 * @param noiseWordsFile
+	 *            Name of file that has a list of noise words, one noise word per
+	 *            line
+	 * @param pool
+	 *            Executor on which documents are scanned and partitions are merged,
+	 *            e.g. a ForkJoinPool or a virtual thread executor
+	 * @param parallelism
+	 *            Number of documents scanned per batch, and number of merge
+	 *            partitions
+	 * @throws FileNotFoundException
+	 *             If there is a problem locating any of the input files on disk
+	 */
+	public synchronized void makeIndex(String docsFile, String noiseWordsFile, ExecutorService pool,
+			int parallelism) throws FileNotFoundException {
+
+		if (parallelism < 1) {
 
-		while ((first != null && first.size() > fCount) && second == null && (top5.size() < 5)) {
+			throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+		}
 
-			if (!top5.contains(first.get(fCount).document)) {
+		MetricsListener listener = metrics;
+		long start = listener == null ? 0 : System.nanoTime();
+		int indexed = 0;
 
-				top5.add(first.get(fCount).document);
+		loadNoiseWords(noiseWordsFile);
+		loadIndexFile();
 
-			}
+		// spread the existing index over the partitions, so that documents merged
+		// by this call are appended after the ones already indexed
+		ArrayList<HashMap<String, Postings>> partitions = new ArrayList<HashMap<String, Postings>>();
+		for (int p = 0; p < parallelism; p++) {
 
-			fCount++;
+			partitions.add(new HashMap<String, Postings>(1000, 2.0f));
+		}
+		for (String key : keywordsIndex.keySet()) {
 
+			partitions.get(partitionOf(key, parallelism)).put(key, keywordsIndex.get(key));
 		}
 
-		while (first == null && (second != null && second.size() > sCount) && (top5.size() < 5)) {
+		ContentCache contents = newContentCache();
+		ArrayBlockingQueue<byte[]> buffers = new ArrayBlockingQueue<byte[]>(parallelism * 4);
+
+		Scanner sc = new Scanner(new File(docsFile));
+		ArrayList<String> batch = new ArrayList<String>();
+		try {
+			while (sc.hasNext()) {
 
-			if (!top5.contains(second.get(sCount).document)) {
+				batch.add(sc.next());
 
-				top5.add(second.get(sCount).document);
+				if (batch.size() == parallelism * 4) {
 
+					indexBatch(batch, partitions, pool, contents, buffers);
+					indexed += batch.size();
+					batch.clear();
+				}
 			}
+			indexBatch(batch, partitions, pool, contents, buffers);
+			indexed += batch.size();
+		} finally {
+			sc.close();
+		}
+
+		long sortStart = listener == null ? 0 : System.nanoTime();
+		sortPartitions(partitions, pool);
 
-			sCount++;
+		keywordsIndex.clear();
+		for (HashMap<String, Postings> partition : partitions) {
 
+			keywordsIndex.putAll(partition);
 		}
+		if (listener != null) {
 
-		return top5;
+			long sorted = System.nanoTime();
+			listener.postingsSorted(keywordsIndex.size(), sorted - sortStart);
+			listener.documentsIndexed(indexed, sorted - start);
+		}
+		publish(null, snapshot.version + 1);
 	}
 
+	/**
+	 * Parallel version of makeIndex, run on a new ForkJoinPool that is shut down
+	 * when indexing is done.
+	 * 
+	 * @param docsFile
+	 *            Name of file that has a list of all the document file names, one
+	 *            name per line
+	 * @param noiseWordsFile
+	 *            Name of file that has a list of noise words, one noise word per
+	 *            line
+	 * @param parallelism
+	 *            Number of threads in the pool
+	 * @throws FileNotFoundException
+	 *             If there is a problem locating any of the input files on disk
+	 */
+	public void makeIndex(String docsFile, String noiseWordsFile, int parallelism) throws FileNotFoundException {
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			makeIndex(docsFile, noiseWordsFile, pool, parallelism);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	// helper for makeIndex, loads noise words to hash table
+	private void loadNoiseWords(String noiseWordsFile) throws FileNotFoundException {
+
+		ArrayList<String> words = new ArrayList<String>();
+		Scanner sc = new Scanner(new File(noiseWordsFile));
+		while (sc.hasNext()) {
+			words.add(sc.next());
+		}
+		sc.close();
+		addNoiseWords(words);
+	}
+
+	// helper, adds noise words and builds their matcher again, for the engines
+	// made of several of these
+	synchronized void addNoiseWords(Collection<String> words) {
+
+		noiseWords.addAll(words);
+		noiseWordMatcher = NoiseWordMatcher.build(noiseWords);
+	}
+
+	// helper for parallel makeIndex, scans a batch of documents and merges them
+	// into the partitions
+	private void indexBatch(final ArrayList<String> docs, final ArrayList<HashMap<String, Postings>> partitions,
+			ExecutorService pool, final ContentCache contents, final ArrayBlockingQueue<byte[]> buffers)
+			throws FileNotFoundException {
+
+		ArrayList<Future<HashMap<String, Occurrence>>> loaded = new ArrayList<Future<HashMap<String, Occurrence>>>();
+		for (final String docFile : docs) {
+
+			loaded.add(pool.submit(new Callable<HashMap<String, Occurrence>>() {
+				public HashMap<String, Occurrence> call() throws FileNotFoundException {
+					return loadKeywords(docFile, contents, buffers);
+				}
+			}));
+		}
+
+		final ArrayList<HashMap<String, Occurrence>> kwsList = new ArrayList<HashMap<String, Occurrence>>();
+		for (Future<HashMap<String, Occurrence>> f : loaded) {
+
+			kwsList.add(await(f));
+		}
+
+		// ids are given out here, in the order of the documents
+		final int[] docIds = new int[docs.size()];
+		for (int d = 0; d < docIds.length; d++) {
+
+			docIds[d] = documents.add(docs.get(d));
+			int length = 0;
+			for (Occurrence occ : kwsList.get(d).values()) {
+
+				length += occ.frequency;
+			}
+			documents.setLength(docIds[d], length);
+		}
+
+		MetricsListener listener = metrics;
+		long start = listener == null ? 0 : System.nanoTime();
+
+		ArrayList<Future<Void>> merged = new ArrayList<Future<Void>>();
+		for (int p = 0; p < partitions.size(); p++) {
+
+			final int partition = p;
+			merged.add(pool.submit(new Callable<Void>() {
+				public Void call() {
+					HashMap<String, Postings> index = partitions.get(partition);
+					for (int d = 0; d < kwsList.size(); d++) {
+						HashMap<String, Occurrence> kws = kwsList.get(d);
+						for (String key : kws.keySet()) {
+							if (partitionOf(key, partitions.size()) == partition) {
+								appendKeyword(index, key, docIds[d], kws.get(key));
+							}
+						}
+					}
+					return null;
+				}
+			}));
+		}
+
+		for (Future<Void> f : merged) {
+
+			await(f);
+		}
+
+		if (listener != null) {
+
+			int postings = 0;
+			for (HashMap<String, Occurrence> kws : kwsList) {
+
+				postings += kws.size();
+			}
+			listener.keywordsMerged(docs.size(), postings, System.nanoTime() - start);
+		}
+	}
+
+	// helper for parallel makeIndex, sorts the postings of every partition on its
+	// own task
+	private static void sortPartitions(ArrayList<HashMap<String, Postings>> partitions, ExecutorService pool)
+			throws FileNotFoundException {
+
+		ArrayList<Future<Void>> sorted = new ArrayList<Future<Void>>();
+		for (final HashMap<String, Postings> partition : partitions) {
+
+			sorted.add(pool.submit(new Callable<Void>() {
+				public Void call() {
+					for (Postings postings : partition.values()) {
+						postings.sort();
+					}
+					return null;
+				}
+			}));
+		}
+
+		for (Future<Void> f : sorted) {
+
+			await(f);
+		}
+	}
+
+	// helper for parallel makeIndex, partition in which a keyword is merged
+	private static int partitionOf(String key, int partitions) {
+
+		int h = key.hashCode();
+		return ((h ^ (h >>> 16)) & 0x7fffffff) % partitions;
+	}
+
+	// helper for parallel indexing, waits for a task and rethrows its failure
+	static <T> T await(Future<T> f) throws FileNotFoundException {
+
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Indexing was interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof FileNotFoundException) {
+				throw (FileNotFoundException) e.getCause();
+			}
+			if (e.getCause() instanceof UncheckedIOException
+					&& e.getCause().getCause() instanceof FileNotFoundException) {
+				throw (FileNotFoundException) e.getCause().getCause();
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Compresses the postings of every keyword in the index, keeping the first
+	 * Postings.HEAD_SIZE postings of each uncompressed, see
+	 * compressIndex(int).
+	 */
+	public void compressIndex() {
+
+		compressIndex(Postings.HEAD_SIZE);
+	}
+
+	/**
+	 * Compresses the postings of every keyword in the index, see
+	 * CompressedPostings. The postings are split in two tiers: a head of the
+	 * highest frequencies, kept in int arrays, and the rest, compressed. Top k
+	 * searches with a small k are answered from the heads alone, and only decode
+	 * the tail of a keyword when its head runs out. Searches read compressed
+	 * postings as they are, merging documents into the index decompresses the
+	 * postings it changes.
+	 * 
+	 * @param headSize
+	 *            Number of postings of each keyword kept uncompressed, 0 to
+	 *            compress them all
+	 */
+	public synchronized void compressIndex(int headSize) {
+
+		if (headSize < 0) {
+
+			throw new IllegalArgumentException("headSize must not be negative: " + headSize);
+		}
+
+		loadIndexFile();
+		for (Map.Entry<String, Postings> entry : keywordsIndex.entrySet()) {
+
+			Postings postings = entry.getValue();
+			if (postings.isFrozen()) {
+				postings = postings.copy();
+				entry.setValue(postings);
+			}
+			postings.compress(headSize);
+		}
+		publish(null, snapshot.version + 1);
+	}
+
+	/**
+	 * Writes the index to a binary file, that can be opened later with openIndex
+	 * instead of indexing all the documents again. The index is compacted first,
+	 * so the file holds no removed documents.
+	 * 
+	 * @param file
+	 *            Index file to write, replaced if it exists
+	 * @throws IOException
+	 *             If the file cannot be written
+	 */
+	public synchronized void saveIndex(Path file) throws IOException {
+
+		loadIndexFile();
+		compact();
+		IndexFile.write(file, keywordsIndex, documents);
+	}
+
+	/**
+	 * Replaces the index with the one in a file written by saveIndex. The file is
+	 * memory-mapped, and the occurrences of a keyword are only read from it when
+	 * the keyword is searched for, so opening takes the same time whatever the size
+	 * of the index. Indexing more documents reads the whole file in first.
+	 * 
+	 * @param file
+	 *            Index file
+	 * @throws IOException
+	 *             If the file cannot be read, or is not an index file
+	 */
+	public synchronized void openIndex(Path file) throws IOException {
+
+		IndexFile opened = IndexFile.open(file);
+		closeIndexFile();
+		keywordsIndex.clear();
+		documents.clear();
+		indexFile = opened;
+		publish(null, snapshot.version + 1);
+	}
+
+	/**
+	 * Indexes all keywords found in all the input documents into an index file,
+	 * and opens it as openIndex does. Unlike makeIndex, the index is never held in
+	 * memory as a whole: postings are written to sorted runs on disk whenever they
+	 * take up the memory budget, and the runs are merged into the file at the end,
+	 * see ExternalIndexBuilder. The file holds no positions.
+	 *
+	 * @param docsFile
+	 *            Name of file that has a list of all the document file names, one
+	 *            name per line
+	 * @param noiseWordsFile
+	 *            Name of file that has a list of noise words, one noise word per
+	 *            line
+	 * @param file
+	 *            Index file to write, replaced if it exists
+	 * @param memoryBudget
+	 *            Estimated number of bytes of postings held in memory at most
+	 * @throws FileNotFoundException
+	 *             If there is a problem locating any of the input files on disk
+	 * @throws IOException
+	 *             If a file cannot be read or written
+	 */
+	public synchronized void makeIndex(String docsFile, String noiseWordsFile, Path file, long memoryBudget)
+			throws IOException {
+
+		loadNoiseWords(noiseWordsFile);
+		new ExternalIndexBuilder(noiseWords, memoryBudget, null).build(docsFile, file);
+		openIndex(file);
+	}
+
+	// helper for SegmentedSearchEngine, replaces the index with keywords and
+	// documents built elsewhere
+	synchronized void replaceIndex(KeywordTable keywords, DocumentTable documents) {
+
+		closeIndexFile();
+		keywordsIndex = keywords;
+		this.documents = documents;
+		publish(null, snapshot.version + 1);
+	}
+
+	// helper, publishes the index to searches as a new snapshot. Only the table
+	// of keywords changed since the last full copy is copied, unless changedKeys
+	// is null or that table grew too large. With c keywords changed per call and
+	// b keywords in all, a limit of sqrt(2bc) changed keywords keeps the copying
+	// lowest, about sqrt(2bc) entries per call instead of b.
+	private void publish(Collection<String> changedKeys, long version) {
+
+		if (changedKeys == null || publishedBase == null || !changedKeys.isEmpty() && publishedChanges.size()
+				+ changedKeys.size() > Math.sqrt(2.0 * publishedBase.size() * changedKeys.size())) {
+
+			for (Postings postings : keywordsIndex.values()) {
+				postings.freeze();
+			}
+			publishedBase = keywordsIndex.copy();
+			publishedChanges = new HashMap<String, Postings>();
+			publishedTerms = new TermDictionary(publishedBase);
+		} else {
+
+			for (String key : changedKeys) {
+				Postings postings = keywordsIndex.get(key);
+				postings.freeze();
+				publishedChanges.put(key, postings);
+			}
+		}
+		snapshot = new IndexSnapshot(version, publishedBase, new HashMap<String, Postings>(publishedChanges),
+				publishedTerms, documents, indexFile);
+	}
+
+	// helper, reads all the keywords of the index file into keywordsIndex and
+	// closes it, before the index is changed
+	private void loadIndexFile() {
+
+		if (indexFile == null) {
+			return;
+		}
+
+		for (int id = 0; id < indexFile.documentCount(); id++) {
+			documents.add(indexFile.documentName(id));
+			documents.setLength(id, indexFile.documentLength(id));
+		}
+		for (int i = 0; i < indexFile.termCount(); i++) {
+			String term = indexFile.term(i);
+			keywordsIndex.put(term, indexFile.getPostings(term));
+		}
+		closeIndexFile();
+
+		// the same index as before, now held in keywordsIndex
+		publish(null, snapshot.version);
+	}
+
+	// helper, closes the index file, if any
+	private void closeIndexFile() {
+
+		if (indexFile != null) {
+			try {
+				indexFile.close();
+			} catch (IOException e) {
+				// nothing is written to the file, so closing cannot lose anything
+			}
+			indexFile = null;
+		}
+	}
+
+	/**
+	 * Search result for "kw1 or kw2". A document is in the result set if kw1 or kw2
+	 * occurs in that document. Result set is arranged in descending order of
+	 * document frequencies. (Note that a matching document will only appear once in
+	 * the result.) Ties in frequency values are broken in favor of the first
+	 * keyword. (That is, if kw1 is in doc1 with frequency f1, and kw2 is in doc2
+	 * also with the same frequency f1, then doc1 will take precedence over doc2 in
+	 * the result. The result set is limited to 5 entries. If there are no matches
+	 * at all, result is null.
+	 * 
+	 * A keyword can also be a pattern such as "alic*", which stands for all the
+	 * keywords it matches, see topKSearch.
+	 * 
+	 * @param kw1
+	 *            First keyword
+	 * @param kw1
+	 *            Second keyword
+	 * @return List of documents in which either kw1 or kw2 occurs, arranged in
+	 *         descending order of frequencies. The result size is limited to 5
+	 *         documents. If there are no matches, returns null.
+	 */
+	public ArrayList<String> top5search(String kw1, String kw2) {
+
+		MetricsListener listener = metrics;
+		long start = listener == null ? 0 : System.nanoTime();
+
+		QueryCache cache = queryCache;
+		if (cache == null) {
+
+			return searched(listener, start, snapshot.topKSearch(Arrays.asList(kw1, kw2), 5, maxExpansions));
+		}
+
+		String key = QueryCache.key(kw1, kw2);
+		IndexSnapshot current = snapshot;
+
+		ArrayList<String> top5 = cache.get(key, current.version);
+		if (top5 == null) {
+
+			top5 = current.topKSearch(Arrays.asList(kw1, kw2), 5, maxExpansions);
+			cache.put(key, current.version, top5);
+
+		} else if (top5.isEmpty()) {
+
+			top5 = null;
+		}
+		return searched(listener, start, top5);
+	}
+
+	/**
+	 * Sets the number of top5search results kept in the cache. Cached results are
+	 * dropped whenever the index changes.
+	 * 
+	 * @param size
+	 *            Maximum number of cached results, 0 to not cache results
+	 */
+	public void setQueryCacheSize(int size) {
+
+		queryCache = size > 0 ? new QueryCache(size) : null;
+	}
+
+	/**
+	 * Sets the number of keyword Occurrences kept by the content cache of
+	 * makeIndex and indexDocuments. While a run indexes documents, the keywords
+	 * of the documents scanned last are kept by a hash of their bytes, and a
+	 * document with the same bytes as one of them, under another name, is not
+	 * scanned again: its keywords are copied, with its own name. The bytes of the
+	 * documents are kept too, to confirm that they are the same, every 64 bytes
+	 * counting as one Occurrence. The cache is dropped when the run ends.
+	 * 
+	 * @param size
+	 *            Maximum number of Occurrences kept, 0 to scan every document
+	 */
+	public void setContentCacheSize(int size) {
+
+		contentCacheSize = Math.max(0, size);
+	}
+
+	/**
+	 * Sets the maximum number of keywords a pattern expands to in searches, so that
+	 * a short prefix such as "a*" does not merge the postings of thousands of
+	 * keywords. Patterns expand to the matching keywords that come first in
+	 * alphabetical order.
+	 * 
+	 * @param max
+	 *            Maximum number of keywords, at least 1
+	 */
+	public void setMaxExpansions(int max) {
+
+		if (max < 1) {
+
+			throw new IllegalArgumentException("max must be at least 1: " + max);
+		}
+		maxExpansions = max;
+
+		// cached results were expanded with the old maximum
+		QueryCache cache = queryCache;
+		if (cache != null) {
+
+			queryCache = new QueryCache(cache.capacity());
+		}
+	}
+
+	/**
+	 * Sets whether the positions of keywords are recorded when documents are
+	 * indexed, which phraseSearch and proximitySearch need. Positions take about
+	 * as much memory as the rest of the index, so they are off by default. Only
+	 * documents indexed while positions are on can match phrases.
+	 * 
+	 * @param positional
+	 *            True to record positions
+	 */
+	public void setPositional(boolean positional) {
+
+		this.positional = positional;
+	}
+
+	/**
+	 * Returns whether the positions of keywords are recorded.
+	 * 
+	 * @return True if positions are recorded
+	 */
+	public boolean isPositional() {
+
+		return positional;
+	}
+
+	/**
+	 * Returns the cache of top5search results, which counts its hits and misses.
+	 * 
+	 * @return Query cache, or null if results are not cached
+	 */
+	public QueryCache getQueryCache() {
+
+		return queryCache;
+	}
+
+	/**
+	 * Returns the version of the index, which is incremented every time documents
+	 * are merged into it or it is replaced.
+	 * 
+	 * @return Index version
+	 */
+	public long getIndexVersion() {
+
+		return snapshot.version;
+	}
+
+	/**
+	 * Returns the current version of the index. Searches on the snapshot keep
+	 * seeing this version, however the index changes afterwards.
+	 * 
+	 * @return Index snapshot
+	 */
+	public IndexSnapshot getSnapshot() {
+
+		return snapshot;
+	}
+
+	/**
+	 * Sets the listener that receives measurements of indexing and searches, such
+	 * as a SearchEngineMetrics. With no listener, which is the default, the engine
+	 * does not even read the clock.
+	 * 
+	 * @param listener
+	 *            Metrics listener, or null to stop measuring
+	 */
+	public void setMetricsListener(MetricsListener listener) {
+
+		metrics = listener;
+	}
+
+	/**
+	 * Returns the listener that receives measurements of indexing and searches.
+	 * 
+	 * @return Metrics listener, or null if none is set
+	 */
+	public MetricsListener getMetricsListener() {
+
+		return metrics;
+	}
+
+	/**
+	 * Search result for "kw1 or kw2 or ...". A document is in the result set if any
+	 * of the keywords occurs in that document. Result set is arranged in descending
+	 * order of document frequencies, as with top5search: a matching document only
+	 * appears once, at its highest frequency, and ties in frequency values are
+	 * broken in favor of the keyword that comes first in the collection. The
+	 * postings of all the keywords are merged with a heap, which stops as soon as k
+	 * documents are found.
+	 * 
+	 * A keyword with a '*' or a '?' is a pattern: '*' matches any number of
+	 * letters, and '?' exactly one. A pattern is replaced by the keywords it
+	 * matches, in alphabetical order, at most as many as set by setMaxExpansions.
+	 * They are found in a sorted dictionary of the keywords, in time proportional
+	 * to the number of keywords that start like the pattern.
+	 * 
+	 * @param keywords
+	 *            Keywords or patterns, in tie-breaking order
+	 * @param k
+	 *            Maximum number of documents in the result
+	 * @return List of documents in which any of the keywords occurs, arranged in
+	 *         descending order of frequencies. The result size is limited to k
+	 *         documents. If there are no matches, returns null.
+	 */
+	public ArrayList<String> topKSearch(Collection<String> keywords, int k) {
+
+		MetricsListener listener = metrics;
+		long start = listener == null ? 0 : System.nanoTime();
+		return searched(listener, start, snapshot.topKSearch(keywords, k, maxExpansions));
+	}
+
+	/**
+	 * Evaluates a batch of "or" queries at once, see topKSearch, on the common
+	 * ForkJoinPool, see searchBatch(List, ExecutorService, int). The results are
+	 * the same as calling topKSearch for each query, on one version of the index.
+	 * 
+	 * @param queries
+	 *            Queries
+	 * @return Result of each query, in the order of the queries, null for a query
+	 *         with no matches
+	 */
+	public ArrayList<ArrayList<String>> searchBatch(List<Query> queries) {
+
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		return searchBatch(queries, pool, pool.getParallelism());
+	}
+
+	/**
+	 * Evaluates a batch of "or" queries at once, see topKSearch. All the queries
+	 * are run on the same version of the index. A query that is repeated in the
+	 * batch is only evaluated once, and the postings of a keyword are looked up
+	 * once for the whole batch. Queries are grouped by keyword and merged on
+	 * several threads, see BatchSearch. The results are not cached.
+	 * 
+	 * @param queries
+	 *            Queries
+	 * @param pool
+	 *            Threads on which the queries are merged
+	 * @param parallelism
+	 *            Number of threads of the pool to use, 1 to merge all the queries
+	 *            on the calling thread
+	 * @return Result of each query, in the order of the queries, null for a query
+	 *         with no matches
+	 */
+	public ArrayList<ArrayList<String>> searchBatch(List<Query> queries, ExecutorService pool, int parallelism) {
+
+		MetricsListener listener = metrics;
+		long start = listener == null ? 0 : System.nanoTime();
+
+		ArrayList<ArrayList<String>> results = BatchSearch.search(snapshot, queries, maxExpansions, pool,
+				parallelism);
+
+		// every query is counted, with its share of the time of the batch
+		if (listener != null && !results.isEmpty()) {
+
+			long nanos = (System.nanoTime() - start) / results.size();
+			for (ArrayList<String> result : results) {
+				listener.searched(nanos, result != null);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Search result for "kw1 and kw2 and ...". A document is in the result set if
+	 * all the keywords occur in that document. Result set is arranged in
+	 * descending order of the sum of the frequencies of the keywords in the
+	 * document, ties broken in favor of the document indexed first. The postings
+	 * of the keywords are intersected in document order, starting from the rarest
+	 * keyword and galloping through the others, so a very common keyword costs
+	 * little more than a rare one, see AndSearch.
+	 * 
+	 * @param keywords
+	 *            Keywords
+	 * @param k
+	 *            Maximum number of documents in the result
+	 * @return List of documents in which all the keywords occur. The result size
+	 *         is limited to k documents. If there are no matches, returns null.
+	 */
+	public ArrayList<String> andSearch(Collection<String> keywords, int k) {
+
+		MetricsListener listener = metrics;
+		long start = listener == null ? 0 : System.nanoTime();
+		return searched(listener, start, snapshot.andSearch(keywords, k));
+	}
+
+	/**
+	 * Ranked search for "kw1 or kw2 or ...", using BM25 with the default
+	 * parameters. See rankedSearch(Collection, int, double, double).
+	 * 
+	 * @param keywords
+	 *            Keywords
+	 * @param k
+	 *            Maximum number of documents in the result
+	 * @return List of documents in which any of the keywords occurs, highest score
+	 *         first. If there are no matches, returns null.
+	 */
+	public ArrayList<String> rankedSearch(Collection<String> keywords, int k) {
+
+		return rankedSearch(keywords, k, RankedSearch.K1, RankedSearch.B);
+	}
+
+	/**
+	 * Ranked search for "kw1 or kw2 or ...". Documents are scored with BM25, which
+	 * weighs each keyword by how rare it is, and each frequency by the length of
+	 * the document, so long documents are not favored the way they are by
+	 * top5search. The top documents are found with MaxScore pruning, which skips
+	 * most of the postings of the common keywords, see RankedSearch.
+	 * 
+	 * @param keywords
+	 *            Keywords
+	 * @param k
+	 *            Maximum number of documents in the result
+	 * @param k1
+	 *            BM25 term frequency saturation
+	 * @param b
+	 *            BM25 length normalization, between 0 and 1
+	 * @return List of documents in which any of the keywords occurs, highest score
+	 *         first, ties broken in favor of the document indexed first. The result
+	 *         size is limited to k documents. If there are no matches, returns
+	 *         null.
+	 */
+	public ArrayList<String> rankedSearch(Collection<String> keywords, int k, double k1, double b) {
+
+		MetricsListener listener = metrics;
+		long start = listener == null ? 0 : System.nanoTime();
+		return searched(listener, start, snapshot.rankedSearch(keywords, k, k1, b));
+	}
+
+	/**
+	 * Phrase search. A document is in the result set if the words of the phrase
+	 * occur in it one after the other, in order. The phrase is split into words
+	 * like a document is, and its noise words, or any other word that is not a
+	 * keyword, match any word at that place. Noise words are the ones loaded by
+	 * makeIndex, which an index opened with openIndex does not have until they are
+	 * loaded. The search only reads the positions
+	 * recorded in the index, see setPositional, never the documents. The result
+	 * set is arranged in descending order of the number of times the phrase occurs
+	 * in the document, ties broken in favor of the document indexed first.
+	 * 
+	 * @param phrase
+	 *            Phrase, example: "down the rabbit hole"
+	 * @param k
+	 *            Maximum number of documents in the result
+	 * @return List of documents that hold the phrase. The result size is limited
+	 *         to k documents. If there are no matches, returns null.
+	 */
+	public ArrayList<String> phraseSearch(String phrase, int k) {
+
+		MetricsListener listener = metrics;
+		long start = listener == null ? 0 : System.nanoTime();
+		return searched(listener, start, snapshot.phraseSearch(phraseKeywords(phrase), k));
+	}
+
+	/**
+	 * Proximity search. A document is in the result set if, at some occurrence of
+	 * the first keyword, each of the other keywords occurs at most within words
+	 * before or after it. Words that are not keywords are left out. The result set
+	 * is arranged in descending order of the number of such occurrences of the
+	 * first keyword, ties broken in favor of the document indexed first. Like
+	 * phraseSearch, this needs the positions recorded in the index.
+	 * 
+	 * @param words
+	 *            Keywords separated by white space, example: "alice rabbit"
+	 * @param within
+	 *            Maximum number of words between the first keyword and each of
+	 *            the others, 1 for next to it
+	 * @param k
+	 *            Maximum number of documents in the result
+	 * @return List of documents in which the keywords occur near one another. The
+	 *         result size is limited to k documents. If there are no matches,
+	 *         returns null.
+	 */
+	public ArrayList<String> proximitySearch(String words, int within, int k) {
+
+		MetricsListener listener = metrics;
+		long start = listener == null ? 0 : System.nanoTime();
+
+		ArrayList<String> keywords = new ArrayList<String>();
+		for (String keyword : phraseKeywords(words)) {
+
+			if (keyword != null) {
+
+				keywords.add(keyword);
+			}
+		}
+		return searched(listener, start, snapshot.proximitySearch(keywords, within, k));
+	}
+
+	// helper for searches, reports a search to the metrics listener, if any
+	private static ArrayList<String> searched(MetricsListener listener, long start, ArrayList<String> result) {
+
+		if (listener != null) {
+
+			listener.searched(System.nanoTime() - start, result != null);
+		}
+		return result;
+	}
+
+	// helper for phrase searches, the keyword of every word in a phrase, null
+	// for a word that is not a keyword
+	private ArrayList<String> phraseKeywords(String phrase) {
+
+		ArrayList<String> keywords = new ArrayList<String>();
+		for (String word : phrase.trim().split("\\s+")) {
+
+			if (word.isEmpty()) {
+
+				continue;
+			}
+			String keyword = getKeyword(word);
+			keywords.add(keyword == null || keyword.isEmpty() ? null : keyword);
+		}
+		return keywords;
+	}
 }
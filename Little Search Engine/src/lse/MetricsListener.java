@@ -0,0 +1,69 @@
+package lse;
+
+/**
+ * This interface receives measurements from a LittleSearchEngine, see
+ * LittleSearchEngine.setMetricsListener. Documents can be scanned and searches
+ * run on several threads at once, so a listener must be thread safe, and should
+ * return quickly. An engine with no listener takes no measurements.
+ *
+ */
+public interface MetricsListener {
+
+	/**
+	 * Called when a document has been scanned for keywords.
+	 *
+	 * @param words
+	 *            Number of words in the document, keywords or not
+	 * @param noiseWords
+	 *            Number of noise words in the document
+	 * @param scanNanos
+	 *            Time spent scanning the document
+	 * @param filterNanos
+	 *            Part of scanNanos spent looking words up in the noise words
+	 */
+	void documentScanned(int words, int noiseWords, long scanNanos, long filterNanos);
+
+	/**
+	 * Called when the keywords of scanned documents have been merged into the
+	 * index.
+	 *
+	 * @param documents
+	 *            Number of documents merged
+	 * @param postings
+	 *            Number of postings merged
+	 * @param nanos
+	 *            Time spent merging
+	 */
+	void keywordsMerged(int documents, int postings, long nanos);
+
+	/**
+	 * Called when postings have been sorted in descending order of frequencies.
+	 *
+	 * @param keywords
+	 *            Number of keywords whose postings were sorted
+	 * @param nanos
+	 *            Time spent sorting
+	 */
+	void postingsSorted(int keywords, long nanos);
+
+	/**
+	 * Called when a call that indexes documents returns, after documentScanned,
+	 * keywordsMerged and postingsSorted were called for its parts.
+	 *
+	 * @param documents
+	 *            Number of documents indexed
+	 * @param nanos
+	 *            Time the whole call took
+	 */
+	void documentsIndexed(int documents, long nanos);
+
+	/**
+	 * Called when a search returns.
+	 *
+	 * @param nanos
+	 *            Time the search took
+	 * @param found
+	 *            True if any document was found
+	 */
+	void searched(long nanos, boolean found);
+}
@@ -0,0 +1,286 @@
+package lse;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * This class tells whether a word is a noise word. It is built once from the
+ * noise words, is never changed afterwards, and can so be shared by any number
+ * of threads. Words are looked up straight from their characters, in a char
+ * array or any CharSequence, so a tokenizer can check a word before it makes a
+ * String of it.
+ *
+ * The words are kept in a minimal perfect hash table: n words in exactly n
+ * slots, with no collisions. A 64 bit hash of the word picks a bucket, and each
+ * bucket has a displacement, found when the table is built, that sends its
+ * words to slots no other word uses. A lookup so hashes the word once, reads one
+ * displacement and compares the word with the one word in its slot. The
+ * characters of all the words are kept back to back in one array.
+ *
+ */
+public final class NoiseWordMatcher {
+
+	/**
+	 * Average number of words per bucket.
+	 */
+	private static final int BUCKET_SIZE = 4;
+
+	/**
+	 * Largest displacement tried for a bucket before the table is built again
+	 * with another seed.
+	 */
+	private static final int MAX_DISPLACEMENT = 1 << 16;
+
+	/**
+	 * Seed of the hash function.
+	 */
+	private final long seed;
+
+	/**
+	 * Displacement of each bucket.
+	 */
+	private final int[] displacements;
+
+	/**
+	 * Characters of the word in each slot, slot i holding the characters from
+	 * offsets[i] to offsets[i + 1].
+	 */
+	private final char[] chars;
+	private final int[] offsets;
+
+	// helper for build, a table that is already filled
+	private NoiseWordMatcher(long seed, int[] displacements, char[] chars, int[] offsets) {
+		this.seed = seed;
+		this.displacements = displacements;
+		this.chars = chars;
+		this.offsets = offsets;
+	}
+
+	/**
+	 * Builds a matcher for the given words.
+	 *
+	 * @param words
+	 *            Noise words, in lower case
+	 * @return Matcher
+	 */
+	public static NoiseWordMatcher build(Collection<String> words) {
+
+		String[] distinct = new LinkedHashSet<String>(words).toArray(new String[0]);
+		for (long seed = 0;; seed++) {
+			NoiseWordMatcher matcher = build(distinct, seed);
+			if (matcher != null) {
+				return matcher;
+			}
+		}
+	}
+
+	/**
+	 * Builds a matcher for the words of a noise word file.
+	 *
+	 * @param noiseWordsFile
+	 *            Name of file that has a list of noise words, one noise word per
+	 *            line
+	 * @return Matcher
+	 * @throws FileNotFoundException
+	 *             If the file is not found on disk
+	 */
+	public static NoiseWordMatcher load(String noiseWordsFile) throws FileNotFoundException {
+
+		ArrayList<String> words = new ArrayList<String>();
+		Scanner sc = new Scanner(new File(noiseWordsFile));
+		while (sc.hasNext()) {
+			words.add(sc.next());
+		}
+		sc.close();
+		return build(words);
+	}
+
+	/**
+	 * Returns the number of noise words.
+	 *
+	 * @return Number of words
+	 */
+	public int size() {
+		return offsets.length - 1;
+	}
+
+	/**
+	 * Returns whether a word is a noise word.
+	 *
+	 * @param word
+	 *            Word, in lower case
+	 * @return True if the word is a noise word
+	 */
+	public boolean contains(CharSequence word) {
+
+		int n = size();
+		if (n == 0) {
+			return false;
+		}
+
+		long h = seed;
+		for (int i = 0; i < word.length(); i++) {
+			h = (h ^ word.charAt(i)) * 0x100000001b3L;
+		}
+		int slot = slot(mix(h), n);
+		int from = offsets[slot];
+		if (offsets[slot + 1] - from != word.length()) {
+			return false;
+		}
+		for (int i = 0; i < word.length(); i++) {
+			if (chars[from + i] != word.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns whether the characters of a word are a noise word.
+	 *
+	 * @param word
+	 *            Characters, in lower case
+	 * @param from
+	 *            Index of the first character of the word
+	 * @param to
+	 *            Index after the last character of the word
+	 * @return True if the word is a noise word
+	 */
+	public boolean contains(char[] word, int from, int to) {
+
+		int n = size();
+		if (n == 0) {
+			return false;
+		}
+
+		long h = seed;
+		for (int i = from; i < to; i++) {
+			h = (h ^ word[i]) * 0x100000001b3L;
+		}
+		int slot = slot(mix(h), n);
+		int at = offsets[slot];
+		if (offsets[slot + 1] - at != to - from) {
+			return false;
+		}
+		for (int i = from; i < to; i++) {
+			if (chars[at++] != word[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// helper, the slot of a word with the given hash
+	private int slot(long h, int n) {
+
+		int bucket = (int) ((h >>> 32) % displacements.length);
+		return place((int) h, displacements[bucket], n);
+	}
+
+	// helper, the slot of a word in a bucket with the given displacement
+	private static int place(int h, int displacement, int n) {
+
+		int x = h + displacement * 0x9e3779b9;
+		x = (x ^ (x >>> 16)) * 0x85ebca6b;
+		x = (x ^ (x >>> 13)) * 0xc2b2ae35;
+		x ^= x >>> 16;
+		return (x & 0x7fffffff) % n;
+	}
+
+	// helper, spreads the bits of an FNV hash over all 64 bits
+	private static long mix(long h) {
+
+		h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+		h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return h ^ (h >>> 33);
+	}
+
+	// helper for build, fills a table with the given seed, or returns null if
+	// some bucket cannot be placed
+	private static NoiseWordMatcher build(String[] words, long seed) {
+
+		int n = words.length;
+		int[] displacements = new int[Math.max(1, (n + BUCKET_SIZE - 1) / BUCKET_SIZE)];
+
+		// words by bucket
+		long[] hashes = new long[n];
+		ArrayList<ArrayList<Integer>> buckets = new ArrayList<ArrayList<Integer>>();
+		for (int b = 0; b < displacements.length; b++) {
+			buckets.add(new ArrayList<Integer>());
+		}
+		for (int i = 0; i < n; i++) {
+			long h = seed;
+			for (int j = 0; j < words[i].length(); j++) {
+				h = (h ^ words[i].charAt(j)) * 0x100000001b3L;
+			}
+			hashes[i] = mix(h);
+			buckets.get((int) ((hashes[i] >>> 32) % displacements.length)).add(i);
+		}
+
+		// largest buckets first, while most slots are free
+		Integer[] order = new Integer[displacements.length];
+		for (int b = 0; b < order.length; b++) {
+			order[b] = b;
+		}
+		final ArrayList<ArrayList<Integer>> sizes = buckets;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return sizes.get(b).size() - sizes.get(a).size();
+			}
+		});
+
+		int[] wordAt = new int[n];
+		Arrays.fill(wordAt, -1);
+		int[] slots = new int[BUCKET_SIZE * 4];
+		for (int b : order) {
+
+			ArrayList<Integer> bucket = buckets.get(b);
+			if (bucket.isEmpty()) {
+				break;
+			}
+			if (slots.length < bucket.size()) {
+				slots = new int[bucket.size()];
+			}
+
+			int d = 0;
+			while (!fits(bucket, hashes, d, n, wordAt, slots)) {
+				if (++d == MAX_DISPLACEMENT) {
+					return null;
+				}
+			}
+			displacements[b] = d;
+			for (int i = 0; i < bucket.size(); i++) {
+				wordAt[slots[i]] = bucket.get(i);
+			}
+		}
+
+		int[] offsets = new int[n + 1];
+		for (int s = 0; s < n; s++) {
+			offsets[s + 1] = offsets[s] + words[wordAt[s]].length();
+		}
+		char[] chars = new char[offsets[n]];
+		for (int s = 0; s < n; s++) {
+			words[wordAt[s]].getChars(0, words[wordAt[s]].length(), chars, offsets[s]);
+		}
+		return new NoiseWordMatcher(seed, displacements, chars, offsets);
+	}
+
+	// helper for build, true if the words of a bucket all go to different free
+	// slots with a displacement, which are then in slots
+	private static boolean fits(ArrayList<Integer> bucket, long[] hashes, int d, int n, int[] wordAt, int[] slots) {
+
+		for (int i = 0; i < bucket.size(); i++) {
+			int s = place((int) hashes[bucket.get(i)], d, n);
+			if (wordAt[s] >= 0) {
+				return false;
+			}
+			for (int j = 0; j < i; j++) {
+				if (slots[j] == s) {
+					return false;
+				}
+			}
+			slots[i] = s;
+		}
+		return true;
+	}
+}
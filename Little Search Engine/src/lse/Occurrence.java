@@ -20,6 +20,13 @@ public class Occurrence {
 	 */
 	int frequency;
 	
+	/**
+	 * Positions of the keyword in the above document, or null if positions are
+	 * not recorded. Positions are word numbers, counting from 0, encoded as
+	 * varints of the difference with the previous position, see Positions.
+	 */
+	byte[] positions;
+	
 	/**
 	 * Initializes this occurrence with the given document,frequency pair.
 	 * 
@@ -31,6 +38,20 @@ public class Occurrence {
 		frequency = freq;
 	}
 	
+	/**
+	 * Initializes this occurrence with the given document,frequency pair, and the
+	 * positions of the keyword in the document.
+	 * 
+	 * @param doc Document name
+	 * @param freq Frequency
+	 * @param positions Encoded positions, see Positions.encode
+	 */
+	public Occurrence(String doc, int freq, byte[] positions) {
+		document = doc;
+		frequency = freq;
+		this.positions = positions;
+	}
+	
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
 	 */
@@ -0,0 +1,163 @@
+package lse;
+
+import java.util.BitSet;
+
+/**
+ * This class finds the documents in which keywords occur next to, or near, one
+ * another, from the positions recorded in the index. The documents that hold
+ * all the keywords are found first, by walking the document list of the rarest
+ * keyword and galloping through the others, and only the positions of those
+ * documents are decoded.
+ *
+ * Documents are ranked on the number of matches in them, highest first, ties
+ * broken in favor of the document indexed first.
+ *
+ */
+public final class PhraseSearch {
+
+	private PhraseSearch() {
+	}
+
+	/**
+	 * Finds the documents that hold a phrase.
+	 *
+	 * @param lists
+	 *            Positions of the keywords of the phrase
+	 * @param offsets
+	 *            Position of each keyword in the phrase, lists[i] must be
+	 *            offsets[i] words after the start of the phrase
+	 * @param removed
+	 *            Ids of the documents to leave out, or null
+	 * @param k
+	 *            Maximum number of documents
+	 * @return Ids of the documents, most matches first, or an empty array if
+	 *         there are none
+	 */
+	static int[] phrase(Positions[] lists, final int[] offsets, BitSet removed, int k) {
+
+		return search(lists, removed, k, new Matcher() {
+			public int matches(int[][] positions) {
+
+				int[] at = new int[positions.length];
+				int count = 0;
+				for (int p : positions[0]) {
+
+					int start = p - offsets[0];
+					boolean match = start >= 0;
+					for (int i = 1; i < positions.length && match; i++) {
+						int want = start + offsets[i];
+						while (at[i] < positions[i].length && positions[i][at[i]] < want) {
+							at[i]++;
+						}
+						match = at[i] < positions[i].length && positions[i][at[i]] == want;
+					}
+					if (match) {
+						count++;
+					}
+				}
+				return count;
+			}
+		});
+	}
+
+	/**
+	 * Finds the documents in which keywords occur near the first one.
+	 *
+	 * @param lists
+	 *            Positions of the keywords, each one different
+	 * @param within
+	 *            Maximum number of words between the first keyword and each of
+	 *            the others, before or after it
+	 * @param removed
+	 *            Ids of the documents to leave out, or null
+	 * @param k
+	 *            Maximum number of documents
+	 * @return Ids of the documents, most matches first, a match being an
+	 *         occurrence of the first keyword with all the others near it, or an
+	 *         empty array if there are none
+	 */
+	static int[] near(Positions[] lists, final int within, BitSet removed, int k) {
+
+		return search(lists, removed, k, new Matcher() {
+			public int matches(int[][] positions) {
+
+				int[] at = new int[positions.length];
+				int count = 0;
+				for (int p : positions[0]) {
+
+					boolean match = true;
+					for (int i = 1; i < positions.length && match; i++) {
+						while (at[i] < positions[i].length && positions[i][at[i]] < p - within) {
+							at[i]++;
+						}
+						match = at[i] < positions[i].length && positions[i][at[i]] <= p + within;
+					}
+					if (match) {
+						count++;
+					}
+				}
+				return count;
+			}
+		});
+	}
+
+	/**
+	 * Counts the matches in a document.
+	 */
+	private interface Matcher {
+
+		/**
+		 * Counts the matches in a document.
+		 *
+		 * @param positions
+		 *            Positions of each keyword in the document
+		 * @return Number of matches
+		 */
+		int matches(int[][] positions);
+	}
+
+	// helper, finds the documents that hold all the keywords, and ranks them on
+	// the number of matches in them
+	private static int[] search(Positions[] lists, BitSet removed, int k, Matcher matcher) {
+
+		int n = lists.length;
+		int rarest = 0;
+		for (int i = 1; i < n; i++) {
+			if (lists[i].size() < lists[rarest].size()) {
+				rarest = i;
+			}
+		}
+
+		RankedSearch.TopScores top = new RankedSearch.TopScores(k);
+		int[] at = new int[n];
+		int[][] positions = new int[n][];
+
+		for (int r = 0; r < lists[rarest].size(); r++) {
+
+			int doc = lists[rarest].docId(r);
+			if (removed != null && removed.get(doc)) {
+				continue;
+			}
+			boolean all = true;
+			for (int i = 0; i < n && all; i++) {
+				at[i] = lists[i].advance(at[i], doc);
+				if (at[i] == lists[i].size()) {
+					return top.docIds();
+				}
+				all = lists[i].docId(at[i]) == doc;
+			}
+			if (!all) {
+				continue;
+			}
+
+			for (int i = 0; i < n; i++) {
+				positions[i] = lists[i].positions(at[i]);
+			}
+			int count = matcher.matches(positions);
+			if (count > 0) {
+				top.offer(doc, count);
+			}
+		}
+		return top.docIds();
+	}
+}
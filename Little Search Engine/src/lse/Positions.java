@@ -0,0 +1,296 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * This class holds the positions of a keyword in the documents it occurs in, in
+ * ascending order of document ids. The position of a word is its number in the
+ * document, counting every word from 0, noise words and rejected words
+ * included, so the distance between two keywords is the number of words
+ * between them in the text.
+ *
+ * The positions in a document are encoded as in Occurrence: varints of the
+ * difference with the previous position. The positions of all the documents are
+ * kept back to back in one byte array.
+ *
+ */
+public class Positions {
+
+	/**
+	 * Document ids, in ascending order.
+	 */
+	private int[] docIds;
+
+	/**
+	 * Offset of the positions of each document in data, docIds[i] has the bytes
+	 * from offsets[i] to offsets[i + 1], or to used for the last document.
+	 */
+	private int[] offsets;
+
+	/**
+	 * Encoded positions.
+	 */
+	private byte[] data;
+
+	/**
+	 * Number of documents, and number of bytes used in data.
+	 */
+	private int size;
+	private int used;
+
+	/**
+	 * Initializes these positions to empty.
+	 */
+	public Positions() {
+		docIds = new int[2];
+		offsets = new int[2];
+		data = new byte[16];
+	}
+
+	/**
+	 * Initializes these positions with arrays that are already in order.
+	 *
+	 * @param docIds
+	 *            Document ids, in ascending order
+	 * @param offsets
+	 *            Offset of the positions of each document
+	 * @param data
+	 *            Encoded positions
+	 * @param size
+	 *            Number of documents
+	 * @param used
+	 *            Number of bytes used in data
+	 */
+	Positions(int[] docIds, int[] offsets, byte[] data, int size, int used) {
+		this.docIds = docIds;
+		this.offsets = offsets;
+		this.data = data;
+		this.size = size;
+		this.used = used;
+	}
+
+	/**
+	 * Adds the positions of the keyword in a document. Documents are normally
+	 * added in ascending order of ids, in which case the positions are appended.
+	 *
+	 * @param docId
+	 *            Document id
+	 * @param positions
+	 *            Encoded positions, see Occurrence
+	 */
+	public void add(int docId, byte[] positions) {
+
+		if (size == docIds.length) {
+			docIds = Arrays.copyOf(docIds, size * 2);
+			offsets = Arrays.copyOf(offsets, size * 2);
+		}
+		if (used + positions.length > data.length) {
+			data = Arrays.copyOf(data, Math.max(data.length * 2, used + positions.length));
+		}
+
+		// after the documents with the same or a lower id
+		int i = size;
+		while (i > 0 && docIds[i - 1] > docId) {
+			i--;
+		}
+		int at = i == size ? used : offsets[i];
+
+		System.arraycopy(docIds, i, docIds, i + 1, size - i);
+		System.arraycopy(offsets, i, offsets, i + 1, size - i);
+		System.arraycopy(data, at, data, at + positions.length, used - at);
+		for (int j = i + 1; j <= size; j++) {
+			offsets[j] += positions.length;
+		}
+
+		docIds[i] = docId;
+		offsets[i] = at;
+		System.arraycopy(positions, 0, data, at, positions.length);
+		size++;
+		used += positions.length;
+	}
+
+	/**
+	 * Returns the number of documents.
+	 *
+	 * @return Number of documents
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the id of a document.
+	 *
+	 * @param i
+	 *            Rank of the document, in ascending order of ids
+	 * @return Document id
+	 */
+	public int docId(int i) {
+		return docIds[i];
+	}
+
+	/**
+	 * Returns the positions of the keyword in a document.
+	 *
+	 * @param i
+	 *            Rank of the document, in ascending order of ids
+	 * @return Positions, in ascending order
+	 */
+	public int[] positions(int i) {
+		return decode(data, offsets[i], end(i));
+	}
+
+	/**
+	 * Finds the first document at or after a rank whose id is at least the target.
+	 * The search gallops, as in DocPostings.advance.
+	 *
+	 * @param from
+	 *            Rank to start from
+	 * @param target
+	 *            Document id to look for
+	 * @return Rank of the first document with an id of at least target, or size()
+	 *         if there is none
+	 */
+	public int advance(int from, int target) {
+
+		if (from >= size || docIds[from] >= target) {
+			return from;
+		}
+
+		// docIds[low] < target
+		int low = from;
+		int step = 1;
+		while (low + step < size && docIds[low + step] < target) {
+			low += step;
+			step <<= 1;
+		}
+
+		int high = Math.min(low + step, size);
+		low++;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (docIds[middle] < target) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns a copy of these positions.
+	 *
+	 * @return Copy of the positions
+	 */
+	public Positions copy() {
+		return new Positions(Arrays.copyOf(docIds, Math.max(2, size)), Arrays.copyOf(offsets, Math.max(2, size)),
+				Arrays.copyOf(data, Math.max(16, used)), size, used);
+	}
+
+	/**
+	 * Returns a copy of these positions without the documents that were removed,
+	 * and with the others renumbered, see Postings.compact.
+	 *
+	 * @param newIds
+	 *            New id of each document id, -1 for a removed document
+	 * @return Compacted positions
+	 */
+	public Positions compact(int[] newIds) {
+
+		int[] ids = new int[Math.max(2, size)];
+		int[] offs = new int[ids.length];
+		byte[] bytes = new byte[Math.max(16, used)];
+		int n = 0;
+		int at = 0;
+		for (int i = 0; i < size; i++) {
+			if (newIds[docIds[i]] >= 0) {
+				int length = end(i) - offsets[i];
+				System.arraycopy(data, offsets[i], bytes, at, length);
+				ids[n] = newIds[docIds[i]];
+				offs[n] = at;
+				n++;
+				at += length;
+			}
+		}
+		return new Positions(ids, offs, bytes, n, at);
+	}
+
+	/**
+	 * Estimates the heap used by these positions, as Postings.memoryBytes does.
+	 *
+	 * @return Estimated number of bytes
+	 */
+	public long memoryBytes() {
+		return 32 + 2 * Postings.align(16 + 4L * docIds.length) + Postings.align(16 + data.length);
+	}
+
+	// helper, offset of the end of the positions of a document
+	int end(int i) {
+		return i + 1 < size ? offsets[i + 1] : used;
+	}
+
+	// helper, offset of the positions of a document
+	int offset(int i) {
+		return offsets[i];
+	}
+
+	// helper, the encoded positions
+	byte[] data() {
+		return data;
+	}
+
+	/**
+	 * Encodes positions.
+	 *
+	 * @param positions
+	 *            Positions, in ascending order
+	 * @param n
+	 *            Number of positions
+	 * @return Varints of the differences between positions
+	 */
+	public static byte[] encode(int[] positions, int n) {
+
+		byte[] out = new byte[n * 5];
+		int at = 0;
+		int previous = 0;
+		for (int i = 0; i < n; i++) {
+			at = CompressedPostings.writeVarint(out, at, positions[i] - previous);
+			previous = positions[i];
+		}
+		return Arrays.copyOf(out, at);
+	}
+
+	/**
+	 * Decodes positions.
+	 *
+	 * @param data
+	 *            Encoded positions
+	 * @param from
+	 *            Offset of the first byte
+	 * @param to
+	 *            Offset after the last byte
+	 * @return Positions, in ascending order
+	 */
+	public static int[] decode(byte[] data, int from, int to) {
+
+		int[] positions = new int[to - from];
+		int n = 0;
+		int value = 0;
+		int shift = 0;
+		int previous = 0;
+		for (int at = from; at < to; at++) {
+			byte b = data[at];
+			value |= (b & 0x7f) << shift;
+			if (b >= 0) {
+				previous += value;
+				positions[n++] = previous;
+				value = 0;
+				shift = 0;
+			} else {
+				shift += 7;
+			}
+		}
+		return n == positions.length ? positions : Arrays.copyOf(positions, n);
+	}
+}
@@ -0,0 +1,577 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * This class holds the postings of a keyword: the ids of the documents in which
+ * it occurs, and its frequency in each one, in two parallel int arrays. Postings
+ * are kept in DESCENDING order of frequencies. Postings with the same frequency
+ * are kept in the order in which they were added.
+ *
+ * Postings that are no longer changed can be compressed in two tiers: the
+ * first postings, the head, stay in the arrays, and the rest, the tail, are
+ * replaced by the bytes of CompressedPostings. A search that only needs the top
+ * few documents, such as top5search, reads the head without decoding anything,
+ * and only decodes the tail, through the iterator, when the head runs out.
+ * Changing compressed postings decompresses them first.
+ *
+ * Postings may also hold the positions of the keyword in each document, for
+ * phrase searches, see Positions.
+ *
+ * Postings published to searches in an IndexSnapshot are frozen: they can no
+ * longer be changed, and the index changes a copy instead.
+ *
+ */
+public class Postings {
+
+	/**
+	 * Default number of postings in the head of compressed postings, enough for
+	 * most top 5 searches on two keywords.
+	 */
+	public static final int HEAD_SIZE = 8;
+
+	/**
+	 * Head of compressed postings that have none, shared by all of them.
+	 */
+	private static final int[] NO_HEAD = new int[0];
+
+	/**
+	 * Document ids.
+	 */
+	private int[] docIds;
+
+	/**
+	 * Frequencies, docIds[i] has frequencies[i].
+	 */
+	private int[] frequencies;
+
+	/**
+	 * Number of postings.
+	 */
+	private int size;
+
+	/**
+	 * False if postings were appended out of order since the last sort.
+	 */
+	private boolean sorted = true;
+
+	/**
+	 * Compressed tail of the postings, or null if they are not compressed. While
+	 * postings are compressed, docIds and frequencies hold the head, which is
+	 * never changed.
+	 */
+	private byte[] packed;
+
+	/**
+	 * Number of postings in the head, while postings are compressed.
+	 */
+	private int head;
+
+	/**
+	 * Positions of the keyword, or null if they are not recorded.
+	 */
+	private Positions positions;
+
+	/**
+	 * True once the postings can be read by searches, and must not change.
+	 */
+	private volatile boolean frozen;
+
+	/**
+	 * Initializes these postings to empty.
+	 */
+	public Postings() {
+		docIds = new int[2];
+		frequencies = new int[2];
+		size = 0;
+	}
+
+	/**
+	 * Initializes these postings with arrays that are already in order.
+	 *
+	 * @param docIds
+	 *            Document ids
+	 * @param frequencies
+	 *            Frequencies, in DESCENDING order
+	 * @param size
+	 *            Number of postings in the arrays
+	 */
+	Postings(int[] docIds, int[] frequencies, int size) {
+		this.docIds = docIds;
+		this.frequencies = frequencies;
+		this.size = size;
+	}
+
+	/**
+	 * Adds a posting in its place, based on ordering postings on descending
+	 * frequencies. The place is found by binary search, after all the postings
+	 * with the same or a higher frequency.
+	 *
+	 * @param docId
+	 *            Document id
+	 * @param frequency
+	 *            Frequency of the keyword in the document
+	 */
+	public void add(int docId, int frequency) {
+		add(docId, frequency, null);
+	}
+
+	/**
+	 * Adds a posting in its place, with the positions of the keyword in the
+	 * document, see add(int, int).
+	 *
+	 * @param docId
+	 *            Document id
+	 * @param frequency
+	 *            Frequency of the keyword in the document
+	 * @param positions
+	 *            Encoded positions of the keyword in the document, or null
+	 */
+	public void add(int docId, int frequency, byte[] positions) {
+
+		checkNotFrozen();
+		addPositions(docId, positions);
+		inflate();
+
+		int low = 0;
+		int high = size - 1;
+
+		while (high >= low) {
+
+			int middle = (low + high) >>> 1;
+
+			if (frequencies[middle] >= frequency) {
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+
+		if (size == docIds.length) {
+			grow();
+		}
+
+		System.arraycopy(docIds, low, docIds, low + 1, size - low);
+		System.arraycopy(frequencies, low, frequencies, low + 1, size - low);
+		docIds[low] = docId;
+		frequencies[low] = frequency;
+		size++;
+	}
+
+	/**
+	 * Appends a posting at the end, without looking for its place. This is used to
+	 * build postings in bulk: sort must be called once all postings are appended,
+	 * before the postings are read.
+	 *
+	 * @param docId
+	 *            Document id
+	 * @param frequency
+	 *            Frequency of the keyword in the document
+	 */
+	public void append(int docId, int frequency) {
+		append(docId, frequency, null);
+	}
+
+	/**
+	 * Appends a posting at the end, with the positions of the keyword in the
+	 * document, see append(int, int).
+	 *
+	 * @param docId
+	 *            Document id
+	 * @param frequency
+	 *            Frequency of the keyword in the document
+	 * @param positions
+	 *            Encoded positions of the keyword in the document, or null
+	 */
+	public void append(int docId, int frequency, byte[] positions) {
+
+		checkNotFrozen();
+		addPositions(docId, positions);
+		inflate();
+		if (size == docIds.length) {
+			grow();
+		}
+		if (size > 0 && frequency > frequencies[size - 1]) {
+			sorted = false;
+		}
+		docIds[size] = docId;
+		frequencies[size] = frequency;
+		size++;
+	}
+
+	/**
+	 * Sorts appended postings in DESCENDING order of frequencies. Postings with the
+	 * same frequency stay in the order in which they were added, so the result is
+	 * the same as adding them one by one with add.
+	 */
+	public void sort() {
+
+		// compressed postings are always sorted
+		if (sorted) {
+			return;
+		}
+		checkNotFrozen();
+
+		// sort keys: the frequency, high first, then the position, which keeps the
+		// sort stable
+		long[] keys = new long[size];
+		for (int i = 0; i < size; i++) {
+			keys[i] = ((long) (Integer.MAX_VALUE - frequencies[i]) << 32) | i;
+		}
+		Arrays.sort(keys);
+
+		int[] ids = new int[size];
+		int[] freqs = new int[size];
+		for (int i = 0; i < size; i++) {
+			int from = (int) keys[i];
+			ids[i] = docIds[from];
+			freqs[i] = frequencies[from];
+		}
+		docIds = ids;
+		frequencies = freqs;
+		sorted = true;
+	}
+
+	/**
+	 * Returns the number of postings.
+	 *
+	 * @return Number of postings
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the document id of a posting. The tail of compressed postings is
+	 * read from its start up to the posting, use the iterator to read it in order
+	 * instead.
+	 *
+	 * @param i
+	 *            Rank of the posting, 0 being the highest frequency
+	 * @return Document id
+	 */
+	public int docId(int i) {
+		return packed != null && i >= head ? seek(i).docId() : docIds[i];
+	}
+
+	/**
+	 * Returns the frequency of a posting. The tail of compressed postings is read
+	 * from its start up to the posting, use the iterator to read it in order
+	 * instead.
+	 *
+	 * @param i
+	 *            Rank of the posting, 0 being the highest frequency
+	 * @return Frequency of the keyword in the document
+	 */
+	public int frequency(int i) {
+		return packed != null && i >= head ? seek(i).frequency() : frequencies[i];
+	}
+
+	// helper for docId and frequency, an iterator on the i-th posting, in the
+	// compressed tail
+	private PostingsIterator seek(int i) {
+
+		if (i >= size) {
+			throw new ArrayIndexOutOfBoundsException(i);
+		}
+		PostingsIterator it = CompressedPostings.iterator(packed);
+		for (int j = head; j <= i; j++) {
+			it.next();
+		}
+		return it;
+	}
+
+	/**
+	 * Returns the positions of the keyword in the documents, in ascending order of
+	 * document ids. They must not be changed.
+	 *
+	 * @return Positions, or null if they are not recorded
+	 */
+	public Positions positions() {
+		return positions;
+	}
+
+	// helper, sets the positions read from an index file
+	void setPositions(Positions positions) {
+		checkNotFrozen();
+		this.positions = positions;
+	}
+
+	/**
+	 * Returns an iterator over these postings, in DESCENDING order of frequencies.
+	 * The postings must not be changed while the iterator is in use.
+	 *
+	 * @return Iterator over the postings
+	 */
+	public PostingsIterator iterator() {
+
+		if (packed != null) {
+			return new PostingsIterator() {
+				int i = -1;
+				PostingsIterator tail;
+
+				public boolean next() {
+					if (++i < head) {
+						return true;
+					}
+					if (tail == null) {
+						tail = CompressedPostings.iterator(packed);
+					}
+					return tail.next();
+				}
+
+				public int docId() {
+					return i < head ? docIds[i] : tail.docId();
+				}
+
+				public int frequency() {
+					return i < head ? frequencies[i] : tail.frequency();
+				}
+			};
+		}
+
+		return new PostingsIterator() {
+			int i = -1;
+
+			public boolean next() {
+				return ++i < size;
+			}
+
+			public int docId() {
+				return docIds[i];
+			}
+
+			public int frequency() {
+				return frequencies[i];
+			}
+		};
+	}
+
+	/**
+	 * Builds the Occurrence objects of these postings.
+	 *
+	 * @param docs
+	 *            Table of the document ids
+	 * @return Occurrences, in DESCENDING order of frequencies
+	 */
+	public ArrayList<Occurrence> toOccurrences(DocumentTable docs) {
+
+		ArrayList<Occurrence> occs = new ArrayList<Occurrence>(size);
+		PostingsIterator it = iterator();
+		while (it.next()) {
+			occs.add(new Occurrence(docs.name(it.docId()), it.frequency()));
+		}
+		return occs;
+	}
+
+	/**
+	 * Compresses these postings, sorting them first if needed, with a head of
+	 * HEAD_SIZE postings.
+	 */
+	public void compress() {
+		compress(HEAD_SIZE);
+	}
+
+	/**
+	 * Compresses these postings, sorting them first if needed.
+	 *
+	 * @param headSize
+	 *            Number of postings kept uncompressed in the head, 0 to compress
+	 *            them all
+	 */
+	public void compress(int headSize) {
+
+		if (headSize < 0) {
+			throw new IllegalArgumentException("headSize must not be negative: " + headSize);
+		}
+		checkNotFrozen();
+		inflate();
+		sort();
+
+		head = Math.min(headSize, size);
+		packed = CompressedPostings.encode(docIds, frequencies, head, size);
+		docIds = head == 0 ? NO_HEAD : Arrays.copyOf(docIds, head);
+		frequencies = head == 0 ? NO_HEAD : Arrays.copyOf(frequencies, head);
+	}
+
+	/**
+	 * Returns whether these postings are compressed.
+	 *
+	 * @return True if the postings are compressed
+	 */
+	public boolean isCompressed() {
+		return packed != null;
+	}
+
+	/**
+	 * Freezes these postings, which must be sorted. Frozen postings can be read
+	 * by any number of threads at the same time, and can no longer be changed.
+	 */
+	public void freeze() {
+
+		if (!sorted) {
+			throw new IllegalStateException("Postings must be sorted before they are frozen");
+		}
+		frozen = true;
+	}
+
+	/**
+	 * Returns whether these postings are frozen.
+	 *
+	 * @return True if the postings can no longer be changed
+	 */
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * Returns a copy of these postings that is not frozen. Compressed postings
+	 * share their head and bytes with the copy, since they are never changed.
+	 *
+	 * @return Copy of the postings
+	 */
+	public Postings copy() {
+
+		Postings copy;
+		if (packed != null) {
+			copy = new Postings(docIds, frequencies, size);
+			copy.packed = packed;
+			copy.head = head;
+		} else {
+			copy = new Postings(Arrays.copyOf(docIds, Math.max(2, size)),
+					Arrays.copyOf(frequencies, Math.max(2, size)), size);
+		}
+		copy.sorted = sorted;
+		copy.positions = positions == null ? null : positions.copy();
+		return copy;
+	}
+
+	/**
+	 * Returns these postings without the postings of removed documents, and with
+	 * the other documents renumbered, see DocumentTable.compact. Renumbering keeps
+	 * the order of the documents, so the postings stay in order without being
+	 * sorted again. Compressed postings are compressed again with the same head.
+	 *
+	 * @param newIds
+	 *            New id of each document id, -1 for a removed document
+	 * @return These postings if no document id changes, otherwise new postings
+	 *         that are not frozen, possibly empty
+	 */
+	public Postings compact(int[] newIds) {
+
+		boolean changed = false;
+		PostingsIterator it = iterator();
+		while (it.next() && !changed) {
+			changed = newIds[it.docId()] != it.docId();
+		}
+		if (!changed) {
+			return this;
+		}
+
+		int[] ids = new int[Math.max(2, size)];
+		int[] freqs = new int[ids.length];
+		int n = 0;
+		it = iterator();
+		while (it.next()) {
+			int docId = newIds[it.docId()];
+			if (docId >= 0) {
+				ids[n] = docId;
+				freqs[n] = it.frequency();
+				n++;
+			}
+		}
+
+		Postings compacted = new Postings(ids, freqs, n);
+		compacted.sorted = sorted;
+		compacted.positions = positions == null ? null : positions.compact(newIds);
+		if (packed != null) {
+			compacted.compress(head);
+		}
+		return compacted;
+	}
+
+	/**
+	 * Estimates the heap used by these postings, assuming 12 byte object headers
+	 * and 4 byte references.
+	 *
+	 * @return Estimated number of bytes
+	 */
+	public long memoryBytes() {
+
+		long bytes = 32 + (positions == null ? 0 : positions.memoryBytes());
+		if (docIds != NO_HEAD) {
+			bytes += 2 * align(16 + 4L * docIds.length);
+		}
+		if (packed != null) {
+			bytes += align(16 + packed.length);
+		}
+		return bytes;
+	}
+
+	// helper for memoryBytes, rounds up to the 8 byte object alignment
+	static long align(long bytes) {
+		return (bytes + 7) & ~7L;
+	}
+
+	// helper for add and append, records the positions of a posting
+	private void addPositions(int docId, byte[] encoded) {
+
+		if (encoded != null) {
+			if (positions == null) {
+				positions = new Positions();
+			}
+			positions.add(docId, encoded);
+		}
+	}
+
+	// helper for the methods that change postings
+	private void checkNotFrozen() {
+
+		if (frozen) {
+			throw new IllegalStateException("Postings are frozen, change a copy instead");
+		}
+	}
+
+	// helper, decompresses the postings into the arrays
+	private void inflate() {
+
+		if (packed == null) {
+			return;
+		}
+
+		int[] ids = Arrays.copyOf(docIds, Math.max(2, size));
+		int[] freqs = Arrays.copyOf(frequencies, ids.length);
+		PostingsIterator it = CompressedPostings.iterator(packed);
+		for (int i = head; it.next(); i++) {
+			ids[i] = it.docId();
+			freqs[i] = it.frequency();
+		}
+		docIds = ids;
+		frequencies = freqs;
+		packed = null;
+		head = 0;
+	}
+
+	// helper for add, doubles the arrays
+	private void grow() {
+		int cap = Math.max(2, size * 2);
+		docIds = Arrays.copyOf(docIds, cap);
+		frequencies = Arrays.copyOf(frequencies, cap);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+
+		StringBuilder sb = new StringBuilder("[");
+		PostingsIterator it = iterator();
+		while (it.next()) {
+			if (sb.length() > 1) {
+				sb.append(", ");
+			}
+			sb.append('(').append(it.docId()).append(',').append(it.frequency()).append(')');
+		}
+		return sb.append(']').toString();
+	}
+}
@@ -0,0 +1,32 @@
+package lse;
+
+/**
+ * Iterates over the postings of a keyword, in DESCENDING order of frequencies.
+ * An iterator starts before the first posting, next must be called to move to
+ * it.
+ *
+ */
+public interface PostingsIterator {
+
+	/**
+	 * Moves to the next posting.
+	 *
+	 * @return True if there is a next posting, false if all postings have been
+	 *         visited
+	 */
+	boolean next();
+
+	/**
+	 * Returns the document id of the current posting.
+	 *
+	 * @return Document id
+	 */
+	int docId();
+
+	/**
+	 * Returns the frequency of the current posting.
+	 *
+	 * @return Frequency of the keyword in the document
+	 */
+	int frequency();
+}
@@ -0,0 +1,103 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * This class is a query of a batch search, see LittleSearchEngine.searchBatch:
+ * "kw1 or kw2 or ...", for the top k documents. Queries are never changed, and
+ * two queries with the same keywords in the same order and the same k are
+ * equal, so a batch evaluates them once.
+ *
+ */
+public final class Query {
+
+	/**
+	 * Keywords or patterns, in tie-breaking order.
+	 */
+	private final List<String> keywords;
+
+	/**
+	 * Maximum number of documents in the result.
+	 */
+	private final int k;
+
+	/**
+	 * Hash code, computed once since queries are hashed to find repeats.
+	 */
+	private final int hash;
+
+	/**
+	 * Initializes a query for "kw1 or kw2", for the top 5 documents, as
+	 * top5search.
+	 *
+	 * @param kw1
+	 *            First keyword
+	 * @param kw2
+	 *            Second keyword
+	 */
+	public Query(String kw1, String kw2) {
+		this(Arrays.asList(kw1, kw2), 5);
+	}
+
+	/**
+	 * Initializes a query for "kw1 or kw2 or ...", as topKSearch.
+	 *
+	 * @param keywords
+	 *            Keywords or patterns, in tie-breaking order
+	 * @param k
+	 *            Maximum number of documents in the result
+	 */
+	public Query(Collection<String> keywords, int k) {
+
+		if (k < 1) {
+			throw new IllegalArgumentException("k must be at least 1: " + k);
+		}
+		this.keywords = Collections.unmodifiableList(new ArrayList<String>(keywords));
+		this.k = k;
+		hash = 31 * this.keywords.hashCode() + k;
+	}
+
+	/**
+	 * Returns the keywords of this query.
+	 *
+	 * @return Keywords or patterns, in tie-breaking order
+	 */
+	public List<String> keywords() {
+		return keywords;
+	}
+
+	/**
+	 * Returns the maximum number of documents in the result.
+	 *
+	 * @return k
+	 */
+	public int k() {
+		return k;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	public boolean equals(Object o) {
+
+		if (!(o instanceof Query)) {
+			return false;
+		}
+		Query other = (Query) o;
+		return hash == other.hash && k == other.k && keywords.equals(other.keywords);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#hashCode()
+	 */
+	public int hashCode() {
+		return hash;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return keywords + " top " + k;
+	}
+}
@@ -0,0 +1,164 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * This class caches search results, evicting the least recently used one when
+ * it is full. Every result is stored with the version of the index it was
+ * computed on: looking a result up with a newer version empties the cache, so a
+ * result is never returned once the index has changed. All methods are
+ * synchronized, so one cache can be shared by several threads.
+ *
+ */
+public class QueryCache {
+
+	/**
+	 * Stands for a null result in the cache. It is never handed out, so it
+	 * cannot be changed.
+	 */
+	private static final ArrayList<String> NO_MATCH = new ArrayList<String>(0);
+
+	/**
+	 * Maximum number of results in the cache.
+	 */
+	private final int capacity;
+
+	/**
+	 * Cached results, by query key, in least recently used first order.
+	 */
+	private final LinkedHashMap<String, ArrayList<String>> results;
+
+	/**
+	 * Version of the index the cached results were computed on.
+	 */
+	private long version;
+
+	/**
+	 * Number of lookups that found, and did not find, a result.
+	 */
+	private long hits;
+	private long misses;
+
+	/**
+	 * Initializes an empty cache.
+	 *
+	 * @param capacity
+	 *            Maximum number of results in the cache
+	 */
+	public QueryCache(final int capacity) {
+
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+		}
+
+		this.capacity = capacity;
+		results = new LinkedHashMap<String, ArrayList<String>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<String, ArrayList<String>> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Returns the key of a two keyword search. The order of the keywords is kept,
+	 * since it breaks ties, and a null keyword is the same as an empty one, since
+	 * neither is ever in the index.
+	 *
+	 * @param kw1
+	 *            First keyword
+	 * @param kw2
+	 *            Second keyword
+	 * @return Key of the search
+	 */
+	public static String key(String kw1, String kw2) {
+
+		return (kw1 == null ? "" : kw1) + '\u0000' + (kw2 == null ? "" : kw2);
+	}
+
+	/**
+	 * Looks up a result.
+	 *
+	 * @param key
+	 *            Key of the search
+	 * @param indexVersion
+	 *            Current version of the index
+	 * @return Copy of the result, a new empty list if the search had no match, or
+	 *         null if the result is not in the cache
+	 */
+	public synchronized ArrayList<String> get(String key, long indexVersion) {
+
+		invalidate(indexVersion);
+		ArrayList<String> result = results.get(key);
+		if (result == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return result == NO_MATCH ? new ArrayList<String>(0) : new ArrayList<String>(result);
+	}
+
+	/**
+	 * Stores a result. It is dropped if the index changed since the search started.
+	 *
+	 * @param key
+	 *            Key of the search
+	 * @param indexVersion
+	 *            Version of the index the search was run on
+	 * @param result
+	 *            Result of the search, null if the search had no match
+	 */
+	public synchronized void put(String key, long indexVersion, ArrayList<String> result) {
+
+		invalidate(indexVersion);
+		if (indexVersion == version) {
+			results.put(key, result == null ? NO_MATCH : new ArrayList<String>(result));
+		}
+	}
+
+	// helper, empties the cache if the index changed
+	private void invalidate(long indexVersion) {
+
+		if (indexVersion > version) {
+			results.clear();
+			version = indexVersion;
+		}
+	}
+
+	/**
+	 * Returns the number of lookups that found a result.
+	 *
+	 * @return Number of hits
+	 */
+	public synchronized long hits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of lookups that did not find a result.
+	 *
+	 * @return Number of misses
+	 */
+	public synchronized long misses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the number of results in the cache.
+	 *
+	 * @return Number of results
+	 */
+	public synchronized int size() {
+		return results.size();
+	}
+
+	/**
+	 * Returns the maximum number of results in the cache.
+	 *
+	 * @return Capacity of the cache
+	 */
+	public int capacity() {
+		return capacity;
+	}
+}
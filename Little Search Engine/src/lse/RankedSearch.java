@@ -0,0 +1,331 @@
+package lse;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class ranks documents with BM25. The score of a document for a query is
+ * the sum, over the query keywords in the document, of
+ *
+ * <pre>
+ * idf * f * (k1 + 1) / (f + k1 * (1 - b + b * length / averageLength))
+ * </pre>
+ *
+ * where f is the frequency of the keyword in the document, length is the
+ * document length, and idf = ln(1 + (N - df + 0.5) / (df + 0.5)) for a keyword
+ * that occurs in df of the N documents.
+ *
+ * Top documents are found with MaxScore: every keyword has an upper bound, the
+ * highest score it gives any document. Keywords are sorted on their bounds, and
+ * once the k-th best score is higher than the sum of the lowest bounds, those
+ * keywords can no longer make a document enter the top k on their own. Their
+ * postings are then only looked up, by galloping, for documents found through
+ * the other keywords, and skipped altogether when the document cannot make it
+ * even with them.
+ *
+ * A RankedSearch is built for one snapshot of the index: document lengths are
+ * read once, and keyword bounds are computed the first time a keyword is
+ * searched for. Any number of threads can search at the same time.
+ *
+ */
+public class RankedSearch {
+
+	/**
+	 * Default BM25 parameters.
+	 */
+	public static final double K1 = 1.2;
+	public static final double B = 0.75;
+
+	/**
+	 * A keyword's postings, in document order, with its idf and upper bound.
+	 */
+	static class Term {
+		DocPostings postings;
+		double idf;
+		double upperBound;
+	}
+
+	/**
+	 * The index.
+	 */
+	private final IndexSnapshot index;
+
+	/**
+	 * BM25 parameters.
+	 */
+	final double k1;
+	final double b;
+
+	/**
+	 * Length normalization of each document, k1 * (1 - b + b * length /
+	 * averageLength), by document id.
+	 */
+	private final double[] norms;
+
+	/**
+	 * Terms searched for so far, by keyword.
+	 */
+	private final ConcurrentHashMap<String, Term> terms;
+
+	/**
+	 * Initializes a search on a snapshot of an index.
+	 *
+	 * @param index
+	 *            Index
+	 * @param k1
+	 *            BM25 term frequency saturation
+	 * @param b
+	 *            BM25 length normalization, between 0 and 1
+	 */
+	RankedSearch(IndexSnapshot index, double k1, double b) {
+
+		this.index = index;
+		this.k1 = k1;
+		this.b = b;
+
+		int n = index.documentIds();
+		double average = index.averageDocumentLength();
+		norms = new double[n];
+		for (int id = 0; id < n; id++) {
+			norms[id] = k1 * (1 - b + (average == 0 ? 0 : b * index.documentLength(id) / average));
+		}
+		terms = new ConcurrentHashMap<String, Term>();
+	}
+
+	/**
+	 * Finds the documents with the highest scores for a query.
+	 *
+	 * @param keywords
+	 *            Query keywords
+	 * @param k
+	 *            Maximum number of documents
+	 * @return Ids of the documents, highest score first, ties broken in favor of
+	 *         the lower id, or null if none of the keywords is in the index
+	 */
+	int[] topK(Collection<String> keywords, int k) {
+
+		ArrayList<Term> found = new ArrayList<Term>();
+		for (String keyword : new LinkedHashSet<String>(keywords)) {
+			Term term = term(keyword);
+			if (term != null) {
+				found.add(term);
+			}
+		}
+		if (found.isEmpty()) {
+			return null;
+		}
+
+		// lowest bound first
+		Collections.sort(found, new Comparator<Term>() {
+			public int compare(Term a, Term b) {
+				return Double.compare(a.upperBound, b.upperBound);
+			}
+		});
+
+		int n = found.size();
+		DocPostings[] lists = new DocPostings[n];
+		double[] idf = new double[n];
+		double[] bounds = new double[n];
+		double sum = 0;
+		for (int i = 0; i < n; i++) {
+			Term term = found.get(i);
+			lists[i] = term.postings;
+			idf[i] = term.idf;
+			sum += term.upperBound;
+			bounds[i] = sum;
+		}
+
+		int[] pos = new int[n];
+		TopScores top = new TopScores(k);
+
+		// lists before firstEssential are the non-essential ones
+		int firstEssential = 0;
+
+		while (true) {
+
+			int doc = Integer.MAX_VALUE;
+			for (int i = firstEssential; i < n; i++) {
+				if (pos[i] < lists[i].size()) {
+					doc = Math.min(doc, lists[i].docId(pos[i]));
+				}
+			}
+			if (doc == Integer.MAX_VALUE) {
+				break;
+			}
+
+			double score = 0;
+			for (int i = firstEssential; i < n; i++) {
+				if (pos[i] < lists[i].size() && lists[i].docId(pos[i]) == doc) {
+					score += score(idf[i], lists[i].frequency(pos[i]), doc);
+					pos[i]++;
+				}
+			}
+
+			for (int i = firstEssential - 1; i >= 0; i--) {
+				if (score + bounds[i] <= top.threshold()) {
+					break;
+				}
+				pos[i] = lists[i].advance(pos[i], doc);
+				if (pos[i] < lists[i].size() && lists[i].docId(pos[i]) == doc) {
+					score += score(idf[i], lists[i].frequency(pos[i]), doc);
+					pos[i]++;
+				}
+			}
+
+			if (top.offer(doc, score)) {
+				while (firstEssential < n && bounds[firstEssential] <= top.threshold()) {
+					firstEssential++;
+				}
+			}
+		}
+
+		return top.docIds();
+	}
+
+	// helper, BM25 score of a keyword in a document
+	private double score(double idf, int frequency, int doc) {
+		return idf * frequency * (k1 + 1) / (frequency + norms[doc]);
+	}
+
+	// helper for topK, the term of a keyword, built the first time it is needed
+	private Term term(String keyword) {
+
+		Term term = keyword == null ? null : terms.get(keyword);
+		if (term != null) {
+			return term;
+		}
+
+		DocPostings postings = index.docOrdered(keyword);
+		if (postings != null) {
+			term = new Term();
+			term.postings = postings;
+			double df = postings.size();
+			term.idf = Math.log(1 + (index.documentCount() - df + 0.5) / (df + 0.5));
+			for (int i = 0; i < postings.size(); i++) {
+				term.upperBound = Math.max(term.upperBound,
+						score(term.idf, postings.frequency(i), postings.docId(i)));
+			}
+			terms.putIfAbsent(keyword, term);
+		}
+		return term;
+	}
+
+	/**
+	 * The k best documents found so far, in a heap whose root is the worst one.
+	 * The heap starts small and grows up to k as documents are offered, so a
+	 * large k costs no more than the documents found.
+	 */
+	static class TopScores {
+
+		private final int k;
+		private int[] docIds;
+		private double[] scores;
+		private int size;
+
+		TopScores(int k) {
+			this.k = k;
+			docIds = new int[Math.min(k, 16)];
+			scores = new double[docIds.length];
+		}
+
+		/**
+		 * Returns the score a document must beat to enter the top k.
+		 *
+		 * @return Lowest score in the top k, or -1 while there are fewer than k
+		 *         documents
+		 */
+		double threshold() {
+			return size < k ? -1 : scores[0];
+		}
+
+		/**
+		 * Offers a document. Documents must be offered in ascending order of ids, so
+		 * a document that ties with the worst one does not replace it.
+		 *
+		 * @param docId
+		 *            Document id
+		 * @param score
+		 *            Score of the document
+		 * @return True if the threshold went up
+		 */
+		boolean offer(int docId, double score) {
+
+			if (size < k) {
+				if (size == docIds.length) {
+					int length = (int) Math.min(k, size * 2L);
+					docIds = Arrays.copyOf(docIds, length);
+					scores = Arrays.copyOf(scores, length);
+				}
+				docIds[size] = docId;
+				scores[size] = score;
+				siftUp(size++);
+				return size == k;
+			}
+			if (score <= scores[0]) {
+				return false;
+			}
+			docIds[0] = docId;
+			scores[0] = score;
+			siftDown(0);
+			return true;
+		}
+
+		/**
+		 * Returns the documents, highest score first, ties broken in favor of the
+		 * lower id.
+		 *
+		 * @return Document ids
+		 */
+		int[] docIds() {
+
+			int[] result = new int[size];
+			for (int i = size - 1; i >= 0; i--) {
+				result[i] = docIds[0];
+				size--;
+				docIds[0] = docIds[size];
+				scores[0] = scores[size];
+				siftDown(0);
+			}
+			return result;
+		}
+
+		// helper, true if entry a is worse than entry b
+		private boolean worse(int a, int b) {
+			return scores[a] < scores[b] || (scores[a] == scores[b] && docIds[a] > docIds[b]);
+		}
+
+		private void swap(int a, int b) {
+			int d = docIds[a];
+			docIds[a] = docIds[b];
+			docIds[b] = d;
+			double s = scores[a];
+			scores[a] = scores[b];
+			scores[b] = s;
+		}
+
+		private void siftUp(int i) {
+			while (i > 0) {
+				int p = (i - 1) / 2;
+				if (!worse(i, p)) {
+					break;
+				}
+				swap(i, p);
+				i = p;
+			}
+		}
+
+		private void siftDown(int i) {
+			while (2 * i + 1 < size) {
+				int child = 2 * i + 1;
+				if (child + 1 < size && worse(child + 1, child)) {
+					child++;
+				}
+				if (!worse(child, i)) {
+					break;
+				}
+				swap(i, child);
+				i = child;
+			}
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package lse;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Measures the indexing and search paths of LittleSearchEngine on synthetic
+ * corpora of growing size. Each measurement is warmed up first, then run for a
+ * number of timed iterations, and reported as the mean time per operation with
+ * the best and worst iteration.
+ *
+ * Usage: java lse.SearchBenchmark noiseWordsFile [documents,... [vocabulary
+ * [skew [seed]]]]
+ *
+ */
+public class SearchBenchmark {
+
+	/**
+	 * Warm up and measured iterations, and the time each one lasts.
+	 */
+	private static final int WARMUP_ITERATIONS = 3;
+	private static final int ITERATIONS = 5;
+	private static final long ITERATION_NANOS = 500000000L;
+
+	/**
+	 * Results are added here, so the JIT cannot drop the work that made them.
+	 */
+	static long sink;
+
+	/**
+	 * An operation to measure.
+	 */
+	static abstract class Operation {
+
+		/**
+		 * Runs the operation once.
+		 *
+		 * @throws Exception
+		 *             If the operation fails
+		 */
+		abstract void run() throws Exception;
+	}
+
+	/**
+	 * Measures an operation and prints the result.
+	 *
+	 * @param name
+	 *            Name of the measurement
+	 * @param op
+	 *            Operation
+	 * @throws Exception
+	 *             If the operation fails
+	 */
+	static void measure(String name, Operation op) throws Exception {
+
+		double best = Double.MAX_VALUE;
+		double worst = 0;
+		double total = 0;
+
+		for (int i = 0; i < WARMUP_ITERATIONS + ITERATIONS; i++) {
+
+			long ops = 0;
+			long start = System.nanoTime();
+			long elapsed;
+			do {
+				op.run();
+				ops++;
+				elapsed = System.nanoTime() - start;
+			} while (elapsed < ITERATION_NANOS);
+
+			if (i >= WARMUP_ITERATIONS) {
+				double perOp = (double) elapsed / ops;
+				best = Math.min(best, perOp);
+				worst = Math.max(worst, perOp);
+				total += perOp;
+			}
+		}
+
+		System.out.println(String.format("  %-40s %14s/op  (best %s, worst %s)", name, format(total / ITERATIONS),
+				format(best), format(worst)));
+	}
+
+	// helper, formats nanoseconds with a unit
+	private static String format(double nanos) {
+
+		if (nanos < 1e3) {
+			return String.format("%.1f ns", nanos);
+		} else if (nanos < 1e6) {
+			return String.format("%.2f us", nanos / 1e3);
+		} else if (nanos < 1e9) {
+			return String.format("%.2f ms", nanos / 1e6);
+		}
+		return String.format("%.2f s", nanos / 1e9);
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		if (args.length < 1) {
+			System.err.println(
+					"Usage: java lse.SearchBenchmark noiseWordsFile [documents,... [vocabulary [skew [seed]]]]");
+			System.exit(1);
+		}
+
+		final String noiseWordsFile = args[0];
+		String[] sizes = (args.length > 1 ? args[1] : "100,1000").split(",");
+		int vocabulary = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+		double skew = args.length > 3 ? Double.parseDouble(args[3]) : 1.0;
+		long seed = args.length > 4 ? Long.parseLong(args[4]) : 42;
+
+		Path root = Files.createTempDirectory("lse-bench");
+
+		for (String size : sizes) {
+
+			int documents = Integer.parseInt(size.trim());
+			CorpusGenerator generator = new CorpusGenerator(documents, vocabulary, skew, seed);
+			final String docsFile = generator.write(root.resolve("corpus" + documents), 100, 1000);
+
+			System.out.println(documents + " documents, vocabulary " + vocabulary + ", skew " + skew + ", seed " + seed);
+			benchmark(generator, root.resolve("corpus" + documents), docsFile, noiseWordsFile);
+		}
+	}
+
+	// helper for main, runs all measurements on one corpus
+	private static void benchmark(CorpusGenerator generator, Path dir, final String docsFile,
+			final String noiseWordsFile) throws Exception {
+
+		final LittleSearchEngine lse = new LittleSearchEngine();
+		lse.setQueryCacheSize(0);
+		lse.makeIndex(docsFile, noiseWordsFile);
+
+		// getKeyword on a mix of keywords, noise words and rejected words
+		final String[] words = { "Wonderland!", "the", "rabbit", "what,ever", "Alice.", "fish!!", "x2", "sleepy" };
+		measure("getKeyword", new Operation() {
+			int i;
+
+			void run() {
+				String kw = lse.getKeyword(words[i++ & 7]);
+				sink += kw == null ? 0 : kw.length();
+			}
+		});
+
+		final Path small = dir.resolve("small.txt");
+		final Path large = dir.resolve("large.txt");
+		generator.writeDocument(small, 100, new Random(1));
+		generator.writeDocument(large, 100000, new Random(2));
+		measure("loadKeywordsFromDocument (100 words)", new Operation() {
+			void run() throws Exception {
+				sink += lse.loadKeywordsFromDocument(small.toString()).size();
+			}
+		});
+		measure("loadKeywordsFromDocument (100k words)", new Operation() {
+			void run() throws Exception {
+				sink += lse.loadKeywordsFromDocument(large.toString()).size();
+			}
+		});
+
+		measure("makeIndex", new Operation() {
+			void run() throws Exception {
+				LittleSearchEngine fresh = new LittleSearchEngine();
+				fresh.makeIndex(docsFile, noiseWordsFile);
+				sink += fresh.keywordsIndex.size();
+			}
+		});
+
+		// the last occurrence goes in the middle of a long list
+		final ArrayList<Occurrence> longList = new ArrayList<Occurrence>();
+		for (int i = 0; i < 100000; i++) {
+			longList.add(new Occurrence("doc" + i, 100000 - i));
+		}
+		measure("insertLastOccurrence (100k list)", new Operation() {
+			void run() {
+				longList.add(new Occurrence("new", 50000));
+				sink += lse.insertLastOccurrence(longList).size();
+				longList.remove(50001);
+			}
+		});
+
+		final String hot1 = generator.word(0);
+		final String hot2 = generator.word(1);
+		String cold1 = null;
+		String cold2 = null;
+		for (int rank = generator.vocabularySize() - 1; rank >= 0 && cold2 == null; rank--) {
+			if (lse.keywordsIndex.containsKey(generator.word(rank))) {
+				if (cold1 == null) {
+					cold1 = generator.word(rank);
+				} else {
+					cold2 = generator.word(rank);
+				}
+			}
+		}
+		final String rare1 = cold1;
+		final String rare2 = cold2;
+
+		measure("top5search (hot terms)", new Operation() {
+			void run() {
+				sink += lse.top5search(hot1, hot2).size();
+			}
+		});
+		measure("top5search (cold terms)", new Operation() {
+			void run() {
+				sink += lse.top5search(rare1, rare2).size();
+			}
+		});
+		measure("top5search (missing terms)", new Operation() {
+			void run() {
+				sink += lse.top5search("zzzzzzzzzzz", "qqqqqqqqqqq") == null ? 1 : 0;
+			}
+		});
+	}
+}
@@ -0,0 +1,274 @@
+package lse;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * This class adds up the measurements of a LittleSearchEngine, and shows them
+ * as a JMX MBean. Counts are kept in LongAdders, so threads that scan documents
+ * or search at the same time do not contend on them. The keywords and heap of
+ * the index are read from the engine's latest snapshot when they are asked for,
+ * so they cost nothing until then, and postings of an index opened from a file
+ * are only counted once they are read in.
+ *
+ * Usage:
+ *
+ * <pre>
+ * SearchEngineMetrics metrics = new SearchEngineMetrics(engine);
+ * engine.setMetricsListener(metrics);
+ * metrics.register("main");
+ * </pre>
+ *
+ */
+public class SearchEngineMetrics implements MetricsListener, SearchEngineMetricsMBean {
+
+	/**
+	 * Number of buckets of the histograms.
+	 */
+	private static final int BUCKETS = 40;
+
+	/**
+	 * Engine measured.
+	 */
+	private final LittleSearchEngine engine;
+
+	// indexing
+	private final LongAdder documents = new LongAdder();
+	private final LongAdder words = new LongAdder();
+	private final LongAdder noiseWords = new LongAdder();
+	private final LongAdder indexNanos = new LongAdder();
+	private final LongAdder scanNanos = new LongAdder();
+	private final LongAdder filterNanos = new LongAdder();
+	private final LongAdder mergeNanos = new LongAdder();
+	private final LongAdder sortNanos = new LongAdder();
+
+	// searches
+	private final LongAdder searches = new LongAdder();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder searchNanos = new LongAdder();
+	private final LongAdder[] latency = new LongAdder[BUCKETS];
+
+	/**
+	 * Initializes the metrics of an engine, all 0. They are only taken once they
+	 * are set as the engine's listener.
+	 *
+	 * @param engine
+	 *            Engine measured
+	 */
+	public SearchEngineMetrics(LittleSearchEngine engine) {
+
+		this.engine = engine;
+		for (int i = 0; i < BUCKETS; i++) {
+			latency[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server, under the name
+	 * "lse:type=SearchEngine,name=" followed by the given name.
+	 *
+	 * @param name
+	 *            Name of the engine
+	 * @return Name the MBean is registered under
+	 * @throws JMException
+	 *             If the name is taken, or the MBean cannot be registered
+	 */
+	public ObjectName register(String name) throws JMException {
+
+		ObjectName objectName = new ObjectName("lse:type=SearchEngine,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+
+	public void documentScanned(int words, int noiseWords, long scanNanos, long filterNanos) {
+		this.words.add(words);
+		this.noiseWords.add(noiseWords);
+		this.scanNanos.add(scanNanos);
+		this.filterNanos.add(filterNanos);
+	}
+
+	public void keywordsMerged(int documents, int postings, long nanos) {
+		mergeNanos.add(nanos);
+	}
+
+	public void postingsSorted(int keywords, long nanos) {
+		sortNanos.add(nanos);
+	}
+
+	public void documentsIndexed(int documents, long nanos) {
+		this.documents.add(documents);
+		indexNanos.add(nanos);
+	}
+
+	public void searched(long nanos, boolean found) {
+		searches.increment();
+		if (found) {
+			hits.increment();
+		}
+		searchNanos.add(nanos);
+		latency[bucket(nanos / 1000)].increment();
+	}
+
+	public long getDocumentsIndexed() {
+		return documents.sum();
+	}
+
+	public long getWordsScanned() {
+		return words.sum();
+	}
+
+	public long getNoiseWordsFiltered() {
+		return noiseWords.sum();
+	}
+
+	public double getDocumentsPerSecond() {
+		return perSecond(documents.sum(), indexNanos.sum());
+	}
+
+	public double getWordsPerSecond() {
+		return perSecond(words.sum(), indexNanos.sum());
+	}
+
+	public long getIndexingMillis() {
+		return indexNanos.sum() / 1000000;
+	}
+
+	public long getScanMillis() {
+		return scanNanos.sum() / 1000000;
+	}
+
+	public long getNoiseFilterMillis() {
+		return filterNanos.sum() / 1000000;
+	}
+
+	public long getMergeMillis() {
+		return mergeNanos.sum() / 1000000;
+	}
+
+	public long getSortMillis() {
+		return sortNanos.sum() / 1000000;
+	}
+
+	public int getKeywords() {
+		return engine.getSnapshot().postingsInMemory().size();
+	}
+
+	public long[] getPostingsLengthHistogram() {
+
+		long[] histogram = new long[BUCKETS];
+		int used = 0;
+		for (Postings postings : engine.getSnapshot().postingsInMemory()) {
+			int i = bucket(postings.size());
+			histogram[i]++;
+			used = Math.max(used, i + 1);
+		}
+		return Arrays.copyOf(histogram, used);
+	}
+
+	public long getIndexHeapBytes() {
+
+		IndexSnapshot snapshot = engine.getSnapshot();
+		long bytes = snapshot.keywordTableBytes();
+		for (Postings postings : snapshot.postingsInMemory()) {
+			bytes += postings.memoryBytes();
+		}
+		return bytes;
+	}
+
+	public long getSearches() {
+		return searches.sum();
+	}
+
+	public long getSearchHits() {
+		return hits.sum();
+	}
+
+	public long getSearchMisses() {
+		return searches.sum() - hits.sum();
+	}
+
+	public long getCacheHits() {
+		QueryCache cache = engine.getQueryCache();
+		return cache == null ? 0 : cache.hits();
+	}
+
+	public long getCacheMisses() {
+		QueryCache cache = engine.getQueryCache();
+		return cache == null ? 0 : cache.misses();
+	}
+
+	public double getMeanSearchMicros() {
+		long n = searches.sum();
+		return n == 0 ? 0 : searchNanos.sum() / 1000.0 / n;
+	}
+
+	public long getSearchMicrosP50() {
+		return percentile(0.5);
+	}
+
+	public long getSearchMicrosP99() {
+		return percentile(0.99);
+	}
+
+	public long[] getSearchLatencyHistogram() {
+
+		long[] histogram = new long[BUCKETS];
+		int used = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			histogram[i] = latency[i].sum();
+			if (histogram[i] > 0) {
+				used = i + 1;
+			}
+		}
+		return Arrays.copyOf(histogram, used);
+	}
+
+	public void reset() {
+
+		LongAdder[] all = { documents, words, noiseWords, indexNanos, scanNanos, filterNanos, mergeNanos, sortNanos,
+				searches, hits, searchNanos };
+		for (LongAdder adder : all) {
+			adder.reset();
+		}
+		for (LongAdder adder : latency) {
+			adder.reset();
+		}
+	}
+
+	// helper, histogram bucket of a value
+	private static int bucket(long value) {
+		return value <= 1 ? 0 : Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(value));
+	}
+
+	// helper, rate of a count over a time
+	private static double perSecond(long count, long nanos) {
+		return nanos == 0 ? 0 : count * 1e9 / nanos;
+	}
+
+	// helper, the power of 2 within which a fraction of the searches ran
+	private long percentile(double fraction) {
+
+		long[] histogram = getSearchLatencyHistogram();
+		long total = 0;
+		for (long n : histogram) {
+			total += n;
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		long wanted = (long) Math.ceil(fraction * total);
+		long seen = 0;
+		for (int i = 0; i < histogram.length; i++) {
+			seen += histogram[i];
+			if (seen >= wanted) {
+				return 1L << (i + 1);
+			}
+		}
+		return 1L << histogram.length;
+	}
+}
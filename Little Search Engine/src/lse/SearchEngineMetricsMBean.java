@@ -0,0 +1,128 @@
+package lse;
+
+/**
+ * JMX interface of SearchEngineMetrics. Times are in milliseconds, or in
+ * microseconds for single searches. Histograms are arrays of counts by power of
+ * 2: bucket i counts the values from 2^i to 2^(i + 1) - 1, and bucket 0 also
+ * counts 0.
+ *
+ */
+public interface SearchEngineMetricsMBean {
+
+	/**
+	 * Number of documents indexed.
+	 */
+	long getDocumentsIndexed();
+
+	/**
+	 * Number of words scanned, keywords or not.
+	 */
+	long getWordsScanned();
+
+	/**
+	 * Number of noise words left out.
+	 */
+	long getNoiseWordsFiltered();
+
+	/**
+	 * Documents indexed per second of indexing.
+	 */
+	double getDocumentsPerSecond();
+
+	/**
+	 * Words scanned per second of indexing.
+	 */
+	double getWordsPerSecond();
+
+	/**
+	 * Time spent in the calls that index documents.
+	 */
+	long getIndexingMillis();
+
+	/**
+	 * Time spent scanning documents, on all threads, noise word lookups included.
+	 */
+	long getScanMillis();
+
+	/**
+	 * Time spent looking words up in the noise words, on all threads.
+	 */
+	long getNoiseFilterMillis();
+
+	/**
+	 * Time spent merging keywords into the index.
+	 */
+	long getMergeMillis();
+
+	/**
+	 * Time spent sorting postings.
+	 */
+	long getSortMillis();
+
+	/**
+	 * Number of keywords in the index held in memory.
+	 */
+	int getKeywords();
+
+	/**
+	 * Number of keywords by number of postings.
+	 */
+	long[] getPostingsLengthHistogram();
+
+	/**
+	 * Estimated heap used by the keyword table and postings held in memory.
+	 */
+	long getIndexHeapBytes();
+
+	/**
+	 * Number of searches.
+	 */
+	long getSearches();
+
+	/**
+	 * Number of searches that found documents.
+	 */
+	long getSearchHits();
+
+	/**
+	 * Number of searches that found none.
+	 */
+	long getSearchMisses();
+
+	/**
+	 * Number of top5search results found in the query cache, since the cache was
+	 * created.
+	 */
+	long getCacheHits();
+
+	/**
+	 * Number of top5search results not found in the query cache, since the cache
+	 * was created.
+	 */
+	long getCacheMisses();
+
+	/**
+	 * Mean time a search took.
+	 */
+	double getMeanSearchMicros();
+
+	/**
+	 * Time within which half of the searches ran, rounded up to a power of 2.
+	 */
+	long getSearchMicrosP50();
+
+	/**
+	 * Time within which 99% of the searches ran, rounded up to a power of 2.
+	 */
+	long getSearchMicrosP99();
+
+	/**
+	 * Number of searches by time taken, in microseconds.
+	 */
+	long[] getSearchLatencyHistogram();
+
+	/**
+	 * Sets all the counts to 0, except those of the query cache.
+	 */
+	void reset();
+}
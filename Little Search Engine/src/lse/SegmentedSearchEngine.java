@@ -0,0 +1,620 @@
+package lse;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class keeps an index that grows all the time as a list of segments, in
+ * the manner of a log-structured merge tree. Each batch of documents is indexed
+ * into a new segment, a LittleSearchEngine of its own, which is compressed and
+ * never indexed into again, so a batch costs the same however large the index
+ * already is. A document indexed again goes to the new segment, and is only
+ * marked as removed in the segment that held it, see
+ * LittleSearchEngine.removeDocument.
+ *
+ * Searches ask every segment for its own top k documents and merge them, as
+ * ShardedSearchEngine does: on frequency, then keyword, then the order in which
+ * documents were indexed, which is the order of the segments, then of the
+ * documents in each segment. Results are so the same as those of a single
+ * LittleSearchEngine that indexed the same documents in the same order.
+ *
+ * To keep searches fast as segments pile up, a background thread merges
+ * segments of about the same size. Segments are put in tiers by number of
+ * documents, tier t holding segments of mergeFactor^t to mergeFactor^(t + 1) -
+ * 1 documents, and as soon as mergeFactor adjacent segments are in the same
+ * tier, they are merged into one segment of the next tier. A document is so
+ * merged about once per tier, and there are about mergeFactor segments per
+ * tier at most, whatever the number of batches. Only adjacent segments are
+ * merged, so merged segments keep the order of the documents. Indexing and
+ * searches go on while segments are merged.
+ *
+ */
+public class SegmentedSearchEngine implements Closeable {
+
+	/**
+	 * Default number of segments merged at once.
+	 */
+	public static final int DEFAULT_MERGE_FACTOR = 10;
+
+	/**
+	 * Number of segments merged at once, and number of segments in a tier at
+	 * which they are merged.
+	 */
+	private final int mergeFactor;
+
+	/**
+	 * Number of segments beyond which the adjacent segments with the fewest
+	 * documents are merged, whatever their tiers.
+	 */
+	private final int maxSegments;
+
+	/**
+	 * The segments, oldest first. The array is replaced, never changed, so
+	 * searches read it without locking.
+	 */
+	private volatile LittleSearchEngine[] segments = new LittleSearchEngine[0];
+
+	/**
+	 * Segment holding each document. Only used while the engine is locked.
+	 */
+	private final HashMap<String, LittleSearchEngine> location = new HashMap<String, LittleSearchEngine>();
+
+	/**
+	 * The hash set of all noise words, copied into each new segment.
+	 */
+	private final HashSet<String> noiseWords = new HashSet<String>(100, 2.0f);
+
+	/**
+	 * Thread on which segments are merged, and whether merges are waiting to
+	 * run on it.
+	 */
+	private final ExecutorService merger;
+	private boolean mergeScheduled;
+
+	/**
+	 * Maximum number of keywords a pattern expands to in searches.
+	 */
+	private volatile int maxExpansions = TermDictionary.MAX_EXPANSIONS;
+
+	/**
+	 * Initializes an empty index, with a merge factor of DEFAULT_MERGE_FACTOR.
+	 */
+	public SegmentedSearchEngine() {
+		this(DEFAULT_MERGE_FACTOR);
+	}
+
+	/**
+	 * Initializes an empty index.
+	 *
+	 * @param mergeFactor
+	 *            Number of segments merged at once, at least 2
+	 */
+	public SegmentedSearchEngine(int mergeFactor) {
+
+		if (mergeFactor < 2) {
+			throw new IllegalArgumentException("mergeFactor must be at least 2: " + mergeFactor);
+		}
+		this.mergeFactor = mergeFactor;
+		maxSegments = 4 * mergeFactor;
+
+		merger = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "lse-merge");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Loads the noise words, and indexes all keywords found in all the input
+	 * documents into one segment.
+	 *
+	 * @param docsFile
+	 *            Name of file that has a list of all the document file names, one
+	 *            name per line
+	 * @param noiseWordsFile
+	 *            Name of file that has a list of noise words, one noise word per
+	 *            line
+	 * @throws FileNotFoundException
+	 *             If there is a problem locating any of the input files on disk
+	 */
+	public void makeIndex(String docsFile, String noiseWordsFile) throws FileNotFoundException {
+
+		synchronized (this) {
+			Scanner sc = new Scanner(new File(noiseWordsFile));
+			while (sc.hasNext()) {
+				noiseWords.add(sc.next());
+			}
+			sc.close();
+		}
+
+		ArrayList<String> docFiles = new ArrayList<String>();
+		Scanner sc = new Scanner(new File(docsFile));
+		while (sc.hasNext()) {
+			docFiles.add(sc.next());
+		}
+		sc.close();
+
+		indexDocuments(docFiles);
+	}
+
+	/**
+	 * Indexes a batch of documents into a new segment. Noise words must already
+	 * be loaded. The segment is built without locking the index, so batches can
+	 * be indexed on several threads at once; their documents are ordered by the
+	 * time each batch is done. Documents already in the index are replaced.
+	 *
+	 * @param docFiles
+	 *            Names of the document files, in the order they are indexed in
+	 * @throws FileNotFoundException
+	 *             If there is a problem locating any of the documents on disk
+	 */
+	public void indexDocuments(Collection<String> docFiles) throws FileNotFoundException {
+
+		LittleSearchEngine segment = newSegment();
+		segment.indexDocuments(docFiles);
+		segment.compressIndex();
+
+		IndexSnapshot snapshot = segment.getSnapshot();
+		if (snapshot.documentCount() == 0) {
+			return;
+		}
+
+		synchronized (this) {
+
+			// the older copies are removed first, so no search sees both
+			for (int id = 0; id < snapshot.documentIds(); id++) {
+				String name = snapshot.documentName(id);
+				LittleSearchEngine older = location.put(name, segment);
+				if (older != null && older != segment) {
+					older.removeDocument(name);
+				}
+			}
+
+			LittleSearchEngine[] next = Arrays.copyOf(segments, segments.length + 1);
+			next[segments.length] = segment;
+			segments = next;
+			mergeLater();
+		}
+	}
+
+	/**
+	 * Removes a document from the index, see LittleSearchEngine.removeDocument.
+	 *
+	 * @param docFile
+	 *            Name of the document file
+	 * @return True if the document was in the index
+	 */
+	public synchronized boolean removeDocument(String docFile) {
+
+		LittleSearchEngine segment = location.remove(docFile);
+		return segment != null && segment.removeDocument(docFile);
+	}
+
+	/**
+	 * Returns the number of segments.
+	 *
+	 * @return Number of segments
+	 */
+	public int segmentCount() {
+		return segments.length;
+	}
+
+	/**
+	 * Returns the number of documents in the index.
+	 *
+	 * @return Number of documents
+	 */
+	public int documentCount() {
+
+		int count = 0;
+		for (LittleSearchEngine segment : segments) {
+			count += segment.getSnapshot().documentCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Waits until the merges of the segments indexed so far are done.
+	 */
+	public void awaitMerges() {
+
+		try {
+			LittleSearchEngine.await(merger.submit(new Callable<Void>() {
+				public Void call() {
+					return null;
+				}
+			}));
+		} catch (FileNotFoundException e) {
+			// merges read no files
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Search result for "kw1 or kw2", see LittleSearchEngine.top5search.
+	 *
+	 * @param kw1
+	 *            First keyword
+	 * @param kw2
+	 *            Second keyword
+	 * @return List of documents in which either kw1 or kw2 occurs, arranged in
+	 *         descending order of frequencies. The result size is limited to 5
+	 *         documents. If there are no matches, returns null.
+	 */
+	public ArrayList<String> top5search(String kw1, String kw2) {
+		return topKSearch(Arrays.asList(kw1, kw2), 5);
+	}
+
+	/**
+	 * Search result for "kw1 or kw2 or ...", see LittleSearchEngine.topKSearch.
+	 * Segments are searched one after the other, on the calling thread.
+	 *
+	 * @param keywords
+	 *            Keywords or patterns, in tie-breaking order
+	 * @param k
+	 *            Maximum number of documents in the result
+	 * @return List of documents in which any of the keywords occurs, arranged in
+	 *         descending order of frequencies. The result size is limited to k
+	 *         documents. If there are no matches, returns null.
+	 */
+	public ArrayList<String> topKSearch(Collection<String> keywords, int k) {
+
+		if (k < 1) {
+			throw new IllegalArgumentException("k must be at least 1: " + k);
+		}
+
+		// a search reads the same version of each segment throughout
+		LittleSearchEngine[] segments = this.segments;
+		IndexSnapshot[] snapshots = new IndexSnapshot[segments.length];
+		for (int i = 0; i < segments.length; i++) {
+			snapshots[i] = segments[i].getSnapshot();
+		}
+
+		// patterns are expanded on all the segments together, so that every
+		// segment merges the same keywords
+		ArrayList<String> expanded = new ArrayList<String>(keywords.size());
+		for (String keyword : keywords) {
+			if (TermDictionary.isPattern(keyword)) {
+				expanded.addAll(expand(snapshots, keyword));
+			} else {
+				expanded.add(keyword);
+			}
+		}
+
+		ArrayList<Hit> hits = new ArrayList<Hit>();
+		for (int i = 0; i < snapshots.length; i++) {
+			search(snapshots[i], i, expanded, k, hits);
+		}
+		if (hits.isEmpty()) {
+			return null;
+		}
+
+		Collections.sort(hits, new Comparator<Hit>() {
+			public int compare(Hit a, Hit b) {
+				if (a.frequency != b.frequency) {
+					return b.frequency - a.frequency;
+				}
+				if (a.keyword != b.keyword) {
+					return a.keyword - b.keyword;
+				}
+				if (a.segment != b.segment) {
+					return a.segment - b.segment;
+				}
+				return a.docId - b.docId;
+			}
+		});
+
+		ArrayList<String> result = new ArrayList<String>(Math.min(k, hits.size()));
+		for (int i = 0; i < k && i < hits.size(); i++) {
+			Hit hit = hits.get(i);
+			result.add(snapshots[hit.segment].documentName(hit.docId));
+		}
+		return result;
+	}
+
+	/**
+	 * Sets the maximum number of keywords a pattern expands to in searches, see
+	 * LittleSearchEngine.setMaxExpansions.
+	 *
+	 * @param max
+	 *            Maximum number of keywords, at least 1
+	 */
+	public void setMaxExpansions(int max) {
+
+		if (max < 1) {
+			throw new IllegalArgumentException("max must be at least 1: " + max);
+		}
+		maxExpansions = max;
+	}
+
+	/**
+	 * Stops the merge thread. Merges that are waiting are dropped, and no more
+	 * documents can be indexed afterwards.
+	 */
+	public void close() {
+		merger.shutdownNow();
+	}
+
+	// helper, an empty segment with the noise words loaded so far
+	private synchronized LittleSearchEngine newSegment() {
+
+		LittleSearchEngine segment = new LittleSearchEngine();
+		segment.addNoiseWords(noiseWords);
+		segment.setQueryCacheSize(0);
+		return segment;
+	}
+
+	// helper, merges segments on the merge thread until none need merging
+	private void mergeLater() {
+
+		if (mergeScheduled || pickMerge(segments) < 0) {
+			return;
+		}
+
+		mergeScheduled = true;
+		merger.execute(new Runnable() {
+			public void run() {
+				while (mergeNext()) {
+				}
+			}
+		});
+	}
+
+	// helper for mergeLater, merges the next run of segments, if any
+	private boolean mergeNext() {
+
+		LittleSearchEngine[] run;
+		IndexSnapshot[] snapshots;
+		synchronized (this) {
+
+			int from = pickMerge(segments);
+			if (from < 0) {
+				mergeScheduled = false;
+				return false;
+			}
+			run = Arrays.copyOfRange(segments, from, from + mergeFactor);
+			snapshots = new IndexSnapshot[run.length];
+			for (int i = 0; i < run.length; i++) {
+				snapshots[i] = run[i].getSnapshot();
+			}
+		}
+
+		LittleSearchEngine merged = merge(snapshots);
+
+		synchronized (this) {
+
+			// only this thread takes segments out, so the run is still in place
+			int from = 0;
+			while (segments[from] != run[0]) {
+				from++;
+			}
+
+			// documents indexed again or removed during the merge are removed
+			IndexSnapshot snapshot = merged.getSnapshot();
+			for (int id = 0; id < snapshot.documentIds(); id++) {
+				String name = snapshot.documentName(id);
+				if (Arrays.asList(run).contains(location.get(name))) {
+					location.put(name, merged);
+				} else {
+					merged.removeDocument(name);
+				}
+			}
+
+			LittleSearchEngine[] next = new LittleSearchEngine[segments.length - run.length + 1];
+			System.arraycopy(segments, 0, next, 0, from);
+			next[from] = merged;
+			System.arraycopy(segments, from + run.length, next, from + 1, segments.length - from - run.length);
+			segments = next;
+		}
+		return true;
+	}
+
+	// helper, the first of mergeFactor adjacent segments to merge, or -1 if
+	// none need merging: the first ones in the same tier, or the ones with the
+	// fewest documents if there are too many segments
+	private int pickMerge(LittleSearchEngine[] segments) {
+
+		if (segments.length < mergeFactor) {
+			return -1;
+		}
+
+		int[] sizes = new int[segments.length];
+		for (int i = 0; i < segments.length; i++) {
+			sizes[i] = segments[i].getSnapshot().documentCount();
+		}
+
+		int from = 0;
+		for (int i = 1; i < segments.length; i++) {
+			if (tier(sizes[i]) != tier(sizes[from])) {
+				from = i;
+			} else if (i - from + 1 == mergeFactor) {
+				return from;
+			}
+		}
+
+		if (segments.length <= maxSegments) {
+			return -1;
+		}
+		int best = 0;
+		long fewest = Long.MAX_VALUE;
+		for (int i = 0; i + mergeFactor <= segments.length; i++) {
+			long documents = 0;
+			for (int j = i; j < i + mergeFactor; j++) {
+				documents += sizes[j];
+			}
+			if (documents < fewest) {
+				best = i;
+				fewest = documents;
+			}
+		}
+		return best;
+	}
+
+	// helper for pickMerge, the tier of a segment with the given number of
+	// documents
+	private int tier(int documents) {
+
+		int tier = 0;
+		for (long size = mergeFactor; size <= documents; size *= mergeFactor) {
+			tier++;
+		}
+		return tier;
+	}
+
+	// helper for mergeNext, a segment that holds the documents of several
+	// adjacent segments that are not removed, in the same order
+	private LittleSearchEngine merge(IndexSnapshot[] snapshots) {
+
+		DocumentTable documents = new DocumentTable();
+		int[][] newIds = new int[snapshots.length][];
+		for (int i = 0; i < snapshots.length; i++) {
+			IndexSnapshot snapshot = snapshots[i];
+			newIds[i] = new int[snapshot.documentIds()];
+			for (int id = 0; id < newIds[i].length; id++) {
+				if (snapshot.isRemoved(id)) {
+					newIds[i][id] = -1;
+				} else {
+					newIds[i][id] = documents.add(snapshot.documentName(id));
+					documents.setLength(newIds[i][id], snapshot.documentLength(id));
+				}
+			}
+		}
+
+		KeywordTable keywords = new KeywordTable();
+		for (int i = 0; i < snapshots.length; i++) {
+			for (String keyword : snapshots[i].keywordsInMemory()) {
+				if (!keywords.containsKey(keyword)) {
+					Postings postings = mergePostings(snapshots, newIds, i, keyword);
+					if (postings.size() > 0) {
+						postings.compress();
+						keywords.put(keyword, postings);
+					}
+				}
+			}
+		}
+
+		LittleSearchEngine merged = newSegment();
+		merged.replaceIndex(keywords, documents);
+		return merged;
+	}
+
+	// helper for merge, the postings of a keyword in the segments from the
+	// first one that holds it on, renumbered. New ids keep the order of the
+	// segments, so on equal frequencies the earlier segment's posting goes first
+	private static Postings mergePostings(IndexSnapshot[] snapshots, int[][] newIds, int first, String keyword) {
+
+		int n = snapshots.length - first;
+		final PostingsIterator[] lists = new PostingsIterator[n];
+
+		// segments by their current posting, highest frequency first, the earlier
+		// segment on ties
+		PriorityQueue<Integer> heap = new PriorityQueue<Integer>(Math.max(1, n), new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int fa = lists[a].frequency();
+				int fb = lists[b].frequency();
+				return fa != fb ? fb - fa : a - b;
+			}
+		});
+
+		int size = 0;
+		for (int i = 0; i < n; i++) {
+			Postings postings = snapshots[first + i].postings(keyword);
+			if (postings != null) {
+				lists[i] = postings.iterator();
+				size += postings.size();
+				if (lists[i].next()) {
+					heap.add(i);
+				}
+			}
+		}
+
+		int[] docIds = new int[Math.max(2, size)];
+		int[] frequencies = new int[docIds.length];
+		int count = 0;
+		while (!heap.isEmpty()) {
+
+			int top = heap.poll();
+			int docId = newIds[first + top][lists[top].docId()];
+			if (docId >= 0) {
+				docIds[count] = docId;
+				frequencies[count] = lists[top].frequency();
+				count++;
+			}
+			if (lists[top].next()) {
+				heap.add(top);
+			}
+		}
+		return new Postings(docIds, frequencies, count);
+	}
+
+	// helper for topKSearch, the keywords a pattern matches in any segment, the
+	// same ones as in a single index
+	private ArrayList<String> expand(IndexSnapshot[] snapshots, String pattern) {
+
+		int max = maxExpansions;
+		TreeSet<String> terms = new TreeSet<String>(new Comparator<String>() {
+			public int compare(String a, String b) {
+				return TermDictionary.compare(a, b);
+			}
+		});
+		for (IndexSnapshot snapshot : snapshots) {
+			terms.addAll(snapshot.expand(pattern, max));
+		}
+
+		ArrayList<String> expanded = new ArrayList<String>(Math.min(max, terms.size()));
+		for (String term : terms) {
+			if (expanded.size() == max) {
+				break;
+			}
+			expanded.add(term);
+		}
+		return expanded;
+	}
+
+	// helper for topKSearch, adds the top k documents of one segment to hits
+	private static void search(IndexSnapshot snapshot, int segment, ArrayList<String> keywords, int k,
+			ArrayList<Hit> hits) {
+
+		PostingsIterator[] lists = new PostingsIterator[keywords.size()];
+		long size = 0;
+		for (int i = 0; i < lists.length; i++) {
+			Postings postings = snapshot.postings(keywords.get(i));
+			if (postings != null) {
+				lists[i] = snapshot.iterator(postings);
+				size += postings.size();
+			}
+		}
+
+		// no more documents are found than there are postings, whatever k is
+		int n = (int) Math.min(k, size);
+		int[] docIds = new int[n];
+		int[] frequencies = new int[n];
+		int[] found = new int[n];
+		int count = new TopKMerge(lists).top(n, docIds, frequencies, found);
+		for (int i = 0; i < count; i++) {
+			hits.add(new Hit(segment, docIds[i], frequencies[i], found[i]));
+		}
+	}
+
+	/**
+	 * A document found in a segment, with the frequency and keyword it was found
+	 * with.
+	 */
+	private static class Hit {
+
+		final int segment;
+		final int docId;
+		final int frequency;
+		final int keyword;
+
+		Hit(int segment, int docId, int frequency, int keyword) {
+			this.segment = segment;
+			this.docId = docId;
+			this.frequency = frequency;
+			this.keyword = keyword;
+		}
+	}
+}
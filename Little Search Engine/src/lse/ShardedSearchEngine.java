@@ -0,0 +1,402 @@
+package lse;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class splits an index into shards, each one a LittleSearchEngine of its
+ * own. Every document goes to the shard picked by the hash of its name. Shards
+ * are indexed at the same time, each on its own thread, and hold separate
+ * keyword tables, so no single table or lock has to hold the whole index.
+ *
+ * Searches ask every shard for its own top k documents, in parallel on threads
+ * of their own, so they do not wait for indexing, and merge them. A shard's top
+ * k are found with the same merge as in a single index, and the shards'
+ * documents are merged on the same order: frequency, then keyword, then the
+ * order in which documents were indexed, which the sharded engine keeps for all
+ * shards. Results are therefore the same as those of a single
+ * LittleSearchEngine that indexed the same documents in the same order.
+ *
+ */
+public class ShardedSearchEngine implements Closeable {
+
+	/**
+	 * The shards.
+	 */
+	private final LittleSearchEngine[] shards;
+
+	/**
+	 * Threads on which shards are indexed.
+	 */
+	private final ExecutorService pool;
+
+	/**
+	 * Threads on which shards are searched, apart from the indexing threads so
+	 * that searches do not wait behind indexing.
+	 */
+	private final ExecutorService searchPool;
+
+	/**
+	 * Order in which documents were indexed, by document name, across all shards.
+	 */
+	private final ConcurrentHashMap<String, Integer> order;
+	private final AtomicInteger documents = new AtomicInteger();
+
+	/**
+	 * Maximum number of keywords a pattern expands to in searches.
+	 */
+	private volatile int maxExpansions = TermDictionary.MAX_EXPANSIONS;
+
+	/**
+	 * Initializes an empty sharded index.
+	 *
+	 * @param shards
+	 *            Number of shards
+	 */
+	public ShardedSearchEngine(int shards) {
+
+		if (shards < 1) {
+			throw new IllegalArgumentException("shards must be at least 1: " + shards);
+		}
+
+		this.shards = new LittleSearchEngine[shards];
+		for (int i = 0; i < shards; i++) {
+			this.shards[i] = new LittleSearchEngine();
+		}
+		order = new ConcurrentHashMap<String, Integer>();
+
+		pool = Executors.newFixedThreadPool(shards, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "lse-shard");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		searchPool = Executors.newFixedThreadPool(shards, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "lse-shard-search");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Returns the number of shards.
+	 *
+	 * @return Number of shards
+	 */
+	public int shardCount() {
+		return shards.length;
+	}
+
+	/**
+	 * Returns a shard.
+	 *
+	 * @param i
+	 *            Number of the shard
+	 * @return Shard
+	 */
+	public LittleSearchEngine shard(int i) {
+		return shards[i];
+	}
+
+	/**
+	 * Returns the shard that holds a document.
+	 *
+	 * @param docFile
+	 *            Name of the document
+	 * @return Number of the shard
+	 */
+	public int shardOf(String docFile) {
+
+		int h = docFile.hashCode();
+		return ((h ^ (h >>> 16)) & 0x7fffffff) % shards.length;
+	}
+
+	/**
+	 * Indexes all keywords found in all the input documents, see
+	 * LittleSearchEngine.makeIndex. The documents of each shard are indexed on
+	 * their own thread.
+	 *
+	 * @param docsFile
+	 *            Name of file that has a list of all the document file names, one
+	 *            name per line
+	 * @param noiseWordsFile
+	 *            Name of file that has a list of noise words, one noise word per
+	 *            line
+	 * @throws FileNotFoundException
+	 *             If there is a problem locating any of the input files on disk
+	 */
+	public synchronized void makeIndex(String docsFile, String noiseWordsFile) throws FileNotFoundException {
+
+		HashSet<String> noise = new HashSet<String>();
+		Scanner sc = new Scanner(new File(noiseWordsFile));
+		while (sc.hasNext()) {
+			noise.add(sc.next());
+		}
+		sc.close();
+
+		ArrayList<ArrayList<String>> docFiles = new ArrayList<ArrayList<String>>();
+		for (int i = 0; i < shards.length; i++) {
+			docFiles.add(new ArrayList<String>());
+		}
+		sc = new Scanner(new File(docsFile));
+		while (sc.hasNext()) {
+			String docFile = sc.next();
+			addDocument(docFile);
+			docFiles.get(shardOf(docFile)).add(docFile);
+		}
+		sc.close();
+
+		ArrayList<Future<Void>> indexed = new ArrayList<Future<Void>>();
+		for (int i = 0; i < shards.length; i++) {
+
+			final LittleSearchEngine shard = shards[i];
+			final ArrayList<String> docs = docFiles.get(i);
+			shard.addNoiseWords(noise);
+			indexed.add(pool.submit(new Callable<Void>() {
+				public Void call() throws FileNotFoundException {
+					shard.indexDocuments(docs);
+					return null;
+				}
+			}));
+		}
+
+		for (Future<Void> f : indexed) {
+			LittleSearchEngine.await(f);
+		}
+	}
+
+	/**
+	 * Scans a document for keywords, see LittleSearchEngine.loadKeywordsFromDocument.
+	 *
+	 * @param docFile
+	 *            Name of the document file to be scanned and loaded
+	 * @return Hash table of keywords in the given document, each associated with an
+	 *         Occurrence object
+	 * @throws FileNotFoundException
+	 *             If the document file is not found on disk
+	 */
+	public HashMap<String, Occurrence> loadKeywordsFromDocument(String docFile) throws FileNotFoundException {
+		return shards[shardOf(docFile)].loadKeywordsFromDocument(docFile);
+	}
+
+	/**
+	 * Merges the keywords of a single document into the shard that holds it, see
+	 * LittleSearchEngine.mergeKeywords.
+	 *
+	 * @param kws
+	 *            Keywords hash table for a document
+	 */
+	public void mergeKeywords(HashMap<String, Occurrence> kws) {
+
+		Iterator<Occurrence> it = kws.values().iterator();
+		if (!it.hasNext()) {
+			return;
+		}
+
+		// the shard's lock keeps its documents in the same order as in order
+		String docFile = it.next().document;
+		LittleSearchEngine shard = shards[shardOf(docFile)];
+		synchronized (shard) {
+			addDocument(docFile);
+			shard.mergeKeywords(kws);
+		}
+	}
+
+	/**
+	 * Search result for "kw1 or kw2", see LittleSearchEngine.top5search.
+	 *
+	 * @param kw1
+	 *            First keyword
+	 * @param kw2
+	 *            Second keyword
+	 * @return List of documents in which either kw1 or kw2 occurs, arranged in
+	 *         descending order of frequencies. The result size is limited to 5
+	 *         documents. If there are no matches, returns null.
+	 */
+	public ArrayList<String> top5search(String kw1, String kw2) {
+		return topKSearch(Arrays.asList(kw1, kw2), 5);
+	}
+
+	/**
+	 * Search result for "kw1 or kw2 or ...", see LittleSearchEngine.topKSearch.
+	 * Every shard is searched on its own thread.
+	 *
+	 * @param keywords
+	 *            Keywords or patterns, in tie-breaking order
+	 * @param k
+	 *            Maximum number of documents in the result
+	 * @return List of documents in which any of the keywords occurs, arranged in
+	 *         descending order of frequencies. The result size is limited to k
+	 *         documents. If there are no matches, returns null.
+	 */
+	public ArrayList<String> topKSearch(Collection<String> keywords, final int k) {
+
+		if (k < 1) {
+			throw new IllegalArgumentException("k must be at least 1: " + k);
+		}
+
+		// a search reads the same version of each shard throughout
+		final IndexSnapshot[] snapshots = new IndexSnapshot[shards.length];
+		for (int i = 0; i < shards.length; i++) {
+			snapshots[i] = shards[i].getSnapshot();
+		}
+
+		// patterns are expanded on all the shards together, so that every shard
+		// merges the same keywords
+		final ArrayList<String> expanded = new ArrayList<String>(keywords.size());
+		for (String keyword : keywords) {
+			if (TermDictionary.isPattern(keyword)) {
+				expanded.addAll(expand(snapshots, keyword));
+			} else {
+				expanded.add(keyword);
+			}
+		}
+
+		ArrayList<Future<ArrayList<Hit>>> searched = new ArrayList<Future<ArrayList<Hit>>>();
+		for (final IndexSnapshot snapshot : snapshots) {
+			searched.add(searchPool.submit(new Callable<ArrayList<Hit>>() {
+				public ArrayList<Hit> call() {
+					return search(snapshot, expanded, k);
+				}
+			}));
+		}
+
+		ArrayList<Hit> hits = new ArrayList<Hit>();
+		for (Future<ArrayList<Hit>> f : searched) {
+			try {
+				hits.addAll(LittleSearchEngine.await(f));
+			} catch (FileNotFoundException e) {
+				// searches read no files
+				throw new IllegalStateException(e);
+			}
+		}
+
+		// every keyword in the index has postings, so no hits means no keywords
+		if (hits.isEmpty()) {
+			return null;
+		}
+
+		Collections.sort(hits, new Comparator<Hit>() {
+			public int compare(Hit a, Hit b) {
+				if (a.frequency != b.frequency) {
+					return b.frequency - a.frequency;
+				}
+				if (a.keyword != b.keyword) {
+					return a.keyword - b.keyword;
+				}
+				return order.get(a.name) - order.get(b.name);
+			}
+		});
+
+		ArrayList<String> result = new ArrayList<String>(Math.min(k, hits.size()));
+		for (int i = 0; i < k && i < hits.size(); i++) {
+			result.add(hits.get(i).name);
+		}
+		return result;
+	}
+
+	/**
+	 * Sets the maximum number of keywords a pattern expands to in searches, see
+	 * LittleSearchEngine.setMaxExpansions.
+	 *
+	 * @param max
+	 *            Maximum number of keywords, at least 1
+	 */
+	public void setMaxExpansions(int max) {
+
+		if (max < 1) {
+			throw new IllegalArgumentException("max must be at least 1: " + max);
+		}
+		maxExpansions = max;
+	}
+
+	/**
+	 * Stops the threads of the shards. Searches and indexing can no longer be run
+	 * afterwards.
+	 */
+	public void close() {
+		pool.shutdown();
+		searchPool.shutdown();
+	}
+
+	// helper, records the order of a document the first time it is indexed
+	private void addDocument(String docFile) {
+
+		if (!order.containsKey(docFile)) {
+			order.putIfAbsent(docFile, documents.getAndIncrement());
+		}
+	}
+
+	// helper for topKSearch, the keywords a pattern matches in any shard, the
+	// same ones as in a single index
+	private ArrayList<String> expand(IndexSnapshot[] snapshots, String pattern) {
+
+		int max = maxExpansions;
+		TreeSet<String> terms = new TreeSet<String>(new Comparator<String>() {
+			public int compare(String a, String b) {
+				return TermDictionary.compare(a, b);
+			}
+		});
+		for (IndexSnapshot snapshot : snapshots) {
+			terms.addAll(snapshot.expand(pattern, max));
+		}
+
+		ArrayList<String> expanded = new ArrayList<String>(Math.min(max, terms.size()));
+		for (String term : terms) {
+			if (expanded.size() == max) {
+				break;
+			}
+			expanded.add(term);
+		}
+		return expanded;
+	}
+
+	// helper for topKSearch, the top k documents of one shard
+	private static ArrayList<Hit> search(IndexSnapshot snapshot, ArrayList<String> keywords, int k) {
+
+		PostingsIterator[] lists = new PostingsIterator[keywords.size()];
+		long size = 0;
+		for (int i = 0; i < lists.length; i++) {
+			Postings postings = snapshot.postings(keywords.get(i));
+			if (postings != null) {
+				lists[i] = snapshot.iterator(postings);
+				size += postings.size();
+			}
+		}
+
+		// no more documents are found than there are postings, whatever k is
+		int n = (int) Math.min(k, size);
+		int[] docIds = new int[n];
+		int[] frequencies = new int[n];
+		int[] found = new int[n];
+		int count = new TopKMerge(lists).top(n, docIds, frequencies, found);
+
+		ArrayList<Hit> hits = new ArrayList<Hit>(count);
+		for (int i = 0; i < count; i++) {
+			hits.add(new Hit(snapshot.documentName(docIds[i]), frequencies[i], found[i]));
+		}
+		return hits;
+	}
+
+	/**
+	 * A document found in a shard, with the frequency and keyword it was found
+	 * with.
+	 */
+	private static class Hit {
+
+		final String name;
+		final int frequency;
+		final int keyword;
+
+		Hit(String name, int frequency, int keyword) {
+			this.name = name;
+			this.frequency = frequency;
+			this.keyword = keyword;
+		}
+	}
+}
@@ -0,0 +1,287 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * This class is a sorted dictionary of the keywords in an index, used to expand
+ * prefix and wildcard patterns into keywords. Keywords are kept in ascending
+ * order of code points, which is also the order of their UTF-8 bytes, so a
+ * dictionary can be built on the directory of an IndexFile without reading it.
+ * All the keywords with a given prefix are next to each other, so expanding a
+ * pattern takes one binary search for the literal prefix before the first
+ * wildcard, then one step per keyword with that prefix.
+ *
+ * Patterns use '*' for any number of letters and '?' for exactly one letter,
+ * so "alic*" matches "alice" and "alicia", and "wom?n" matches "woman" and
+ * "women".
+ *
+ * A dictionary built on a set of keywords, or on a KeywordTable, sorts them
+ * the first time it is used. They must not change afterwards.
+ *
+ */
+public class TermDictionary {
+
+	/**
+	 * Default maximum number of keywords a pattern expands to.
+	 */
+	public static final int MAX_EXPANSIONS = 64;
+
+	/**
+	 * Keywords to sort, or null once they are sorted or if the dictionary is on an
+	 * index file.
+	 */
+	private Collection<String> unsorted;
+
+	/**
+	 * Sorted keywords, or null until first use or if the dictionary is on an index
+	 * file.
+	 */
+	private volatile String[] terms;
+
+	/**
+	 * Keyword table to sort, or null.
+	 */
+	private final KeywordTable table;
+
+	/**
+	 * Ids of the keywords of the table, sorted, or null until first use.
+	 */
+	private volatile int[] ids;
+
+	/**
+	 * Index file whose directory is the dictionary, or null.
+	 */
+	private final IndexFile file;
+
+	/**
+	 * Initializes a dictionary of a set of keywords.
+	 *
+	 * @param keywords
+	 *            Keywords, which must not change once the dictionary is used
+	 */
+	public TermDictionary(Collection<String> keywords) {
+		unsorted = keywords;
+		table = null;
+		file = null;
+	}
+
+	/**
+	 * Initializes a dictionary of the keywords in a table. The keywords are
+	 * sorted by id, without copying them to the heap.
+	 *
+	 * @param table
+	 *            Keyword table, which must not change once the dictionary is used
+	 */
+	public TermDictionary(KeywordTable table) {
+		this.table = table;
+		file = null;
+	}
+
+	/**
+	 * Initializes a dictionary of the keywords in an index file.
+	 *
+	 * @param file
+	 *            Index file
+	 */
+	public TermDictionary(IndexFile file) {
+		table = null;
+		this.file = file;
+	}
+
+	/**
+	 * Returns the number of keywords in the dictionary.
+	 *
+	 * @return Number of keywords
+	 */
+	public int size() {
+		if (file != null) {
+			return file.termCount();
+		}
+		return table != null ? table.size() : sorted().length;
+	}
+
+	/**
+	 * Returns a keyword by its rank in the dictionary.
+	 *
+	 * @param i
+	 *            Rank of the keyword, in ascending order of code points
+	 * @return Keyword
+	 */
+	public String term(int i) {
+		if (file != null) {
+			return file.term(i);
+		}
+		return table != null ? table.keyword(sortedIds()[i]) : sorted()[i];
+	}
+
+	/**
+	 * Finds the keywords that match a pattern.
+	 *
+	 * @param pattern
+	 *            Pattern, in lower case
+	 * @param max
+	 *            Maximum number of keywords
+	 * @return Matching keywords, in ascending order of code points, the first max
+	 *         ones if there are more
+	 */
+	public ArrayList<String> expand(String pattern, int max) {
+
+		String prefix = literalPrefix(pattern);
+		boolean exact = prefix.length() == pattern.length();
+		boolean prefixOnly = pattern.length() == prefix.length() + 1 && pattern.charAt(prefix.length()) == '*';
+
+		ArrayList<String> matches = new ArrayList<String>();
+		int size = size();
+		for (int i = lowerBound(prefix); i < size && matches.size() < max; i++) {
+
+			String term = term(i);
+			if (!term.startsWith(prefix)) {
+				break;
+			}
+			if (exact) {
+				if (term.length() == prefix.length()) {
+					matches.add(term);
+				}
+				break;
+			}
+			if (prefixOnly || matches(pattern, prefix.length(), term, prefix.length())) {
+				matches.add(term);
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * Returns whether a keyword is a pattern, that is, contains a wildcard.
+	 *
+	 * @param keyword
+	 *            Keyword
+	 * @return True if the keyword contains '*' or '?'
+	 */
+	public static boolean isPattern(String keyword) {
+		return keyword != null && (keyword.indexOf('*') >= 0 || keyword.indexOf('?') >= 0);
+	}
+
+	/**
+	 * Compares two keywords on their code points.
+	 *
+	 * @param a
+	 *            First keyword
+	 * @param b
+	 *            Second keyword
+	 * @return Negative, 0 or positive as a comes before, is equal to or comes after
+	 *         b
+	 */
+	public static int compare(String a, String b) {
+
+		int n = Math.min(a.length(), b.length());
+		for (int i = 0; i < n; i++) {
+			char x = a.charAt(i);
+			char y = b.charAt(i);
+			if (x != y) {
+				// surrogates encode code points above every other char
+				boolean sx = Character.isSurrogate(x);
+				boolean sy = Character.isSurrogate(y);
+				if (sx != sy) {
+					return sx ? 1 : -1;
+				}
+				return x - y;
+			}
+		}
+		return a.length() - b.length();
+	}
+
+	// helper, the keywords in order, sorted the first time they are needed
+	private String[] sorted() {
+
+		String[] sorted = terms;
+		if (sorted == null) {
+			synchronized (this) {
+				sorted = terms;
+				if (sorted == null) {
+					sorted = unsorted.toArray(new String[unsorted.size()]);
+					Arrays.sort(sorted, new Comparator<String>() {
+						public int compare(String a, String b) {
+							return TermDictionary.compare(a, b);
+						}
+					});
+					terms = sorted;
+					unsorted = null;
+				}
+			}
+		}
+		return sorted;
+	}
+
+	// helper, the ids of the table's keywords in order, sorted the first time
+	// they are needed
+	private int[] sortedIds() {
+
+		int[] sorted = ids;
+		if (sorted == null) {
+			synchronized (this) {
+				sorted = ids;
+				if (sorted == null) {
+					sorted = table.sortedIds();
+					ids = sorted;
+				}
+			}
+		}
+		return sorted;
+	}
+
+	// helper for expand, rank of the first keyword that is not before key
+	private int lowerBound(String key) {
+
+		int low = 0;
+		int high = size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (compare(term(middle), key) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	// helper for expand, the part of a pattern before its first wildcard
+	private static String literalPrefix(String pattern) {
+
+		for (int i = 0; i < pattern.length(); i++) {
+			char c = pattern.charAt(i);
+			if (c == '*' || c == '?') {
+				return pattern.substring(0, i);
+			}
+		}
+		return pattern;
+	}
+
+	// helper for expand, matches the rest of a term against the rest of a
+	// pattern. A '*' first matches as few letters as it can, and takes one more
+	// letter whenever what follows does not match.
+	private static boolean matches(String pattern, int p, String term, int t) {
+
+		int star = -1;
+		int starTerm = 0;
+		while (t < term.length()) {
+			if (p < pattern.length() && (pattern.charAt(p) == '?' || pattern.charAt(p) == term.charAt(t))) {
+				p++;
+				t++;
+			} else if (p < pattern.length() && pattern.charAt(p) == '*') {
+				star = p++;
+				starTerm = t;
+			} else if (star >= 0) {
+				p = star + 1;
+				t = ++starTerm;
+			} else {
+				return false;
+			}
+		}
+		while (p < pattern.length() && pattern.charAt(p) == '*') {
+			p++;
+		}
+		return p == pattern.length();
+	}
+}
@@ -0,0 +1,202 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * This class merges the postings of several keywords into the top documents of
+ * an "or" search. Each keyword's postings are in DESCENDING order of
+ * frequencies, so the lists are merged with a heap holding the current posting
+ * of each list: the top of the heap is the posting with the highest frequency,
+ * ties being broken in favor of the keyword that comes first. A document is only
+ * kept the first time it comes out of the heap, and merging stops as soon as k
+ * documents are kept, so only the head of each list is read.
+ *
+ */
+public class TopKMerge {
+
+	/**
+	 * Postings lists, by keyword order.
+	 */
+	private final PostingsIterator[] lists;
+
+	/**
+	 * Heap of the numbers of the lists that have a current posting.
+	 */
+	private final int[] heap;
+
+	/**
+	 * Number of lists in the heap.
+	 */
+	private int size;
+
+	/**
+	 * Documents found so far.
+	 */
+	private final BitSet emitted;
+
+	/**
+	 * Last document found, its frequency, and the list it was found in.
+	 */
+	private int docId;
+	private int frequency;
+	private int keyword;
+
+	/**
+	 * Initializes the merge of the given postings lists.
+	 *
+	 * @param lists
+	 *            Postings lists, in keyword order, null for a keyword that is not
+	 *            in the index
+	 */
+	public TopKMerge(PostingsIterator[] lists) {
+		this(lists, new BitSet());
+	}
+
+	/**
+	 * Initializes the merge of the given postings lists, marking the documents
+	 * found in a set given by the caller, so that one set can serve many merges:
+	 * the caller clears the bits of the documents found before the next merge.
+	 *
+	 * @param lists
+	 *            Postings lists, in keyword order, null for a keyword that is not
+	 *            in the index
+	 * @param emitted
+	 *            Empty set
+	 */
+	TopKMerge(PostingsIterator[] lists, BitSet emitted) {
+		this.lists = lists;
+		this.emitted = emitted;
+		heap = new int[lists.length];
+		size = 0;
+		for (int i = 0; i < lists.length; i++) {
+			if (lists[i] != null && lists[i].next()) {
+				heap[size] = i;
+				siftUp(size++);
+			}
+		}
+	}
+
+	/**
+	 * Merges the lists until k distinct documents are found, or the lists run out.
+	 *
+	 * @param k
+	 *            Maximum number of documents
+	 * @return Ids of the documents, in merge order
+	 */
+	public int[] top(int k) {
+
+		int[] docIds = new int[Math.min(k, 16)];
+		int found = 0;
+
+		while (found < k && nextDocument()) {
+
+			if (found == docIds.length) {
+				docIds = Arrays.copyOf(docIds, Math.min(k, found * 2));
+			}
+			docIds[found++] = docId;
+		}
+
+		return Arrays.copyOf(docIds, found);
+	}
+
+	/**
+	 * Merges the lists until k distinct documents are found, or the lists run out,
+	 * and tells where each document was found, so that the results of several
+	 * merges can be merged in turn.
+	 *
+	 * @param k
+	 *            Maximum number of documents
+	 * @param docIds
+	 *            Array for the ids of the documents, in merge order, of length at
+	 *            least k
+	 * @param frequencies
+	 *            Array for the frequency each document was found with
+	 * @param keywords
+	 *            Array for the number of the list each document was found in
+	 * @return Number of documents found
+	 */
+	public int top(int k, int[] docIds, int[] frequencies, int[] keywords) {
+
+		int found = 0;
+
+		while (found < k && nextDocument()) {
+
+			docIds[found] = docId;
+			frequencies[found] = frequency;
+			keywords[found] = keyword;
+			found++;
+		}
+
+		return found;
+	}
+
+	// helper, takes postings off the heap until one is for a document that was
+	// not found yet, and sets docId, frequency and keyword to it
+	private boolean nextDocument() {
+
+		while (size > 0) {
+
+			PostingsIterator top = lists[heap[0]];
+			boolean found = !emitted.get(top.docId());
+			if (found) {
+				docId = top.docId();
+				frequency = top.frequency();
+				keyword = heap[0];
+				emitted.set(docId);
+			}
+
+			if (top.next()) {
+				siftDown(0);
+			} else {
+				heap[0] = heap[--size];
+				siftDown(0);
+			}
+
+			if (found) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// helper, true if the current posting of list a comes before the one of list b
+	private boolean before(int a, int b) {
+
+		int fa = lists[a].frequency();
+		int fb = lists[b].frequency();
+		return fa > fb || (fa == fb && a < b);
+	}
+
+	// helper, moves a heap entry up to its place
+	private void siftUp(int k) {
+
+		while (k > 0) {
+			int p = (k - 1) / 2;
+			if (!before(heap[k], heap[p])) {
+				break;
+			}
+			int temp = heap[k];
+			heap[k] = heap[p];
+			heap[p] = temp;
+			k = p;
+		}
+	}
+
+	// helper, moves a heap entry down to its place
+	private void siftDown(int k) {
+
+		while (2 * k + 1 < size) {
+			int child = 2 * k + 1;
+			if (child + 1 < size && before(heap[child + 1], heap[child])) {
+				child++;
+			}
+			if (!before(heap[child], heap[k])) {
+				break;
+			}
+			int temp = heap[k];
+			heap[k] = heap[child];
+			heap[child] = temp;
+			k = child;
+		}
+	}
+}
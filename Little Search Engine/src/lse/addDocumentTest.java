@@ -0,0 +1,88 @@
+package lse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+/**
+ * Checks addDocument, updateDocument and removeDocument on documents that have
+ * no keywords: an empty document and a document of noise words must be indexed
+ * like any other, so they count as documents, cannot be added twice, and can be
+ * removed, and a document updated to empty contents stays indexed without its
+ * old keywords. Run from the directory of the bundled documents.
+ */
+public class addDocumentTest {
+
+	public static void main(String[] args) throws IOException {
+
+		LittleSearchEngine lse = new LittleSearchEngine();
+		lse.makeIndex("docs.txt", "noisewords.txt");
+		int documents = lse.getSnapshot().documentCount();
+
+		File empty = write("empty", "");
+		File noise = write("noise", "the and of a an");
+		File changing = write("changing", "zebra zebra quokka");
+
+		int failed = 0;
+
+		lse.addDocument(empty.getPath());
+		lse.addDocument(noise.getPath());
+		lse.addDocument(changing.getPath());
+		failed += check("documents with no keywords are counted", lse.getSnapshot().documentCount() == documents + 3);
+		failed += check("an empty document cannot be added twice", !addAgain(lse, empty.getPath()));
+		failed += check("a noise word document cannot be added twice", !addAgain(lse, noise.getPath()));
+
+		ArrayList<String> found = lse.top5search("zebra", "quokka");
+		failed += check("keywords are found", found != null && found.contains(changing.getPath()));
+
+		// real contents to empty contents
+		write("changing", "");
+		lse.updateDocument(changing.getPath());
+		failed += check("an emptied document stays counted", lse.getSnapshot().documentCount() == documents + 3);
+		failed += check("an emptied document loses its keywords", lse.top5search("zebra", "quokka") == null);
+		failed += check("an emptied document cannot be added twice", !addAgain(lse, changing.getPath()));
+
+		failed += check("an empty document is removed", lse.removeDocument(empty.getPath()));
+		failed += check("an emptied document is removed", lse.removeDocument(changing.getPath()));
+		failed += check("removed documents are not counted", lse.getSnapshot().documentCount() == documents + 1);
+		failed += check("a removed document can be added again", addAgain(lse, empty.getPath()));
+
+		empty.delete();
+		noise.delete();
+		changing.delete();
+
+		System.out.println(failed == 0 ? "all passed" : failed + " failed");
+		if (failed > 0) {
+			System.exit(1);
+		}
+	}
+
+	// helper, adds a document, false if it is already in the index
+	private static boolean addAgain(LittleSearchEngine lse, String docFile) throws IOException {
+
+		try {
+			lse.addDocument(docFile);
+			return true;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	// helper, writes a document in the temporary directory
+	private static File write(String name, String contents) throws IOException {
+
+		File file = new File(System.getProperty("java.io.tmpdir"), "addDocumentTest-" + name + ".txt");
+		PrintWriter out = new PrintWriter(file);
+		out.print(contents);
+		out.close();
+		return file;
+	}
+
+	// helper, prints the result of a check, 1 if it failed
+	private static int check(String what, boolean passed) {
+
+		System.out.println((passed ? "ok: " : "FAILED: ") + what);
+		return passed ? 0 : 1;
+	}
+}
@@ -0,0 +1,92 @@
+package lse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Checks ExternalIndexBuilder against LittleSearchEngine: the bundled documents,
+ * or the documents listed in the file given as argument, are indexed in memory,
+ * and built into an index file with memory budgets small enough to spill many
+ * runs, or large enough to spill one, which is then opened. top5search and
+ * topKSearch must give the same results on both for every keyword, every two
+ * keywords that follow each other in alphabetical order, a pattern for each
+ * letter, and all the keywords at once with no limit on the number of results.
+ * Run from the directory of the documents.
+ */
+public class externalIndexTest {
+
+	public static void main(String[] args) throws IOException {
+
+		String docsFile = args.length > 0 ? args[0] : "docs.txt";
+
+		LittleSearchEngine lse = new LittleSearchEngine();
+		lse.makeIndex(docsFile, "noisewords.txt");
+		ArrayList<String> keywords = lse.getSnapshot().expand("*", Integer.MAX_VALUE);
+
+		int failed = 0;
+		Path file = File.createTempFile("externalIndexTest", ".lse").toPath();
+		try {
+			for (long budget : new long[] { 256, 1 << 14, 1L << 30 }) {
+
+				ExternalIndexBuilder builder = new ExternalIndexBuilder(lse.noiseWords, budget, null);
+				builder.build(docsFile, file);
+				LittleSearchEngine external = new LittleSearchEngine();
+				external.openIndex(file);
+
+				String what = "budget " + budget + ", " + builder.runCount() + " runs";
+				if (budget == 256 && builder.runCount() < 2) {
+					System.out.println(what + ": FAILED, the documents fit in one run");
+					failed++;
+				}
+				failed += compare(lse, external, keywords, what);
+			}
+		} finally {
+			file.toFile().delete();
+		}
+
+		System.out.println(failed == 0 ? "all same" : failed + " different");
+		if (failed > 0) {
+			System.exit(1);
+		}
+	}
+
+	// helper, the number of searches that give different results
+	private static int compare(LittleSearchEngine lse, LittleSearchEngine external, ArrayList<String> keywords,
+			String what) {
+
+		int failed = 0;
+		for (int i = 0; i < keywords.size(); i++) {
+			String kw1 = keywords.get(i);
+			String kw2 = keywords.get((i + 1) % keywords.size());
+			failed += check(what, "top5search " + kw1 + " " + kw2, lse.top5search(kw1, kw2),
+					external.top5search(kw1, kw2));
+			failed += check(what, "topKSearch " + kw1, lse.topKSearch(Arrays.asList(kw1), 5),
+					external.topKSearch(Arrays.asList(kw1), 5));
+		}
+		for (char c = 'a'; c <= 'z'; c++) {
+			Collection<String> pattern = Arrays.asList(c + "*");
+			failed += check(what, "topKSearch " + pattern, lse.topKSearch(pattern, 10),
+					external.topKSearch(pattern, 10));
+		}
+		failed += check(what, "topKSearch of all keywords", lse.topKSearch(keywords, Integer.MAX_VALUE),
+				external.topKSearch(keywords, Integer.MAX_VALUE));
+
+		System.out.println(what + ": " + (failed == 0 ? "same" : failed + " different"));
+		return failed;
+	}
+
+	// helper, prints the results of a search that differ, 1 if they do
+	private static int check(String what, String search, ArrayList<String> expected, ArrayList<String> found) {
+
+		if (expected == null ? found == null : expected.equals(found)) {
+			return 0;
+		}
+		System.out.println(what + ", " + search + ": DIFFERENT, LittleSearchEngine " + expected + ", external "
+				+ found);
+		return 1;
+	}
+}
@@ -0,0 +1,88 @@
+package lse;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Scanner;
+
+/**
+ * Checks KeywordTokenizer against getKeyword: every bundled document, or the
+ * documents given as arguments, is scanned by the tokenizer, and read word by
+ * word with a Scanner and getKeyword, and the keyword frequencies must be the
+ * same. Run from the directory of the documents.
+ *
+ * A Scanner on a File stops, without an error, at the first bytes the default
+ * charset cannot decode, while the tokenizer replaces them and reads on, so the
+ * words are read from the same replacing Reader for the comparison, and
+ * documents that a Scanner on the File reads only in part are reported. Run
+ * with -Dfile.encoding=US-ASCII to see it on WowCh1.txt.
+ */
+public class loadKeywordsTest {
+
+	public static void main(String[] args) throws IOException {
+
+		String[] docFiles = args;
+		if (docFiles.length == 0) {
+			docFiles = new String[] { "doc1.txt", "doc2.txt", "doc3.txt", "doc4.txt", "doc5.txt", "doc6.txt",
+					"doc7.txt", "doc8.txt", "test1.txt", "test2.txt", "test3.txt", "test4.txt", "test5.txt",
+					"test6.txt", "world.txt", "AliceCh1.txt", "WowCh1.txt" };
+		}
+
+		LittleSearchEngine lse = new LittleSearchEngine();
+		lse.makeIndex("docs.txt", "noisewords.txt");
+		KeywordTokenizer tokenizer = new KeywordTokenizer(lse.noiseWords);
+
+		int failed = 0;
+		for (String docFile : docFiles) {
+
+			HashMap<String, Occurrence> kws = tokenizer.loadKeywords(docFile);
+
+			Scanner sc = new Scanner(new InputStreamReader(new FileInputStream(docFile), Charset.defaultCharset()));
+			HashMap<String, Integer> expected = countKeywords(lse, sc);
+			sc.close();
+
+			HashMap<String, Integer> found = new HashMap<String, Integer>();
+			for (String key : kws.keySet()) {
+				found.put(key, kws.get(key).frequency);
+			}
+
+			if (found.equals(expected)) {
+				System.out.println(docFile + ": " + found.size() + " keywords, same");
+			} else {
+				System.out.println(docFile + ": DIFFERENT, tokenizer " + found + ", getKeyword " + expected);
+				failed++;
+			}
+
+			Scanner file = new Scanner(new File(docFile));
+			HashMap<String, Integer> partial = countKeywords(lse, file);
+			if (file.ioException() != null) {
+				System.out.println(docFile + ": a Scanner on the file stops at bytes it cannot decode ("
+						+ file.ioException() + ") after " + partial.size() + " keywords");
+			}
+			file.close();
+		}
+
+		System.out.println(failed == 0 ? "all same" : failed + " different");
+		if (failed > 0) {
+			System.exit(1);
+		}
+	}
+
+	// helper, the frequencies of the keywords read by a Scanner. Words made only
+	// of punctuation, which getKeyword returns as "", are not keywords
+	private static HashMap<String, Integer> countKeywords(LittleSearchEngine lse, Scanner sc) {
+
+		HashMap<String, Integer> counts = new HashMap<String, Integer>();
+		while (sc.hasNext()) {
+			String kw = lse.getKeyword(sc.next());
+			if (kw != null && kw.length() > 0) {
+				Integer n = counts.get(kw);
+				counts.put(kw, n == null ? 1 : n + 1);
+			}
+		}
+		return counts;
+	}
+}
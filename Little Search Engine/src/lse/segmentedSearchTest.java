@@ -0,0 +1,133 @@
+package lse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Scanner;
+
+/**
+ * Checks SegmentedSearchEngine against LittleSearchEngine: the bundled
+ * documents, or the documents listed in the file given as argument, are indexed
+ * by both, in one batch, then one document per batch with segments merged two
+ * at a time, and top5search and topKSearch must give the same results for every
+ * keyword, every two keywords that follow each other in alphabetical order, a
+ * pattern for each letter, and all the keywords at once with no limit on the
+ * number of results.
+ *
+ * The second document is removed from both once the first two segments are
+ * merged, and the results are checked again, with the removed document only
+ * marked in its segment, and after the next document makes that segment merge
+ * again, which drops it. Run from the directory of the documents.
+ */
+public class segmentedSearchTest {
+
+	public static void main(String[] args) throws IOException {
+
+		String docsFile = args.length > 0 ? args[0] : "docs.txt";
+
+		ArrayList<String> docFiles = new ArrayList<String>();
+		Scanner sc = new Scanner(new File(docsFile));
+		while (sc.hasNext()) {
+			docFiles.add(sc.next());
+		}
+		sc.close();
+		if (docFiles.size() < 3) {
+			System.out.println("at least 3 documents are needed");
+			System.exit(1);
+		}
+
+		LittleSearchEngine lse = new LittleSearchEngine();
+		lse.makeIndex(docsFile, "noisewords.txt");
+		ArrayList<String> keywords = lse.getSnapshot().expand("*", Integer.MAX_VALUE);
+
+		int failed = 0;
+
+		// all documents in one batch
+		SegmentedSearchEngine segmented = new SegmentedSearchEngine();
+		try {
+			segmented.makeIndex(docsFile, "noisewords.txt");
+			failed += compare(lse, segmented, keywords, "one batch");
+		} finally {
+			segmented.close();
+		}
+
+		// one document per batch, on engines that load the noise words only
+		File none = File.createTempFile("segmentedSearchTest", ".txt");
+		lse = new LittleSearchEngine();
+		segmented = new SegmentedSearchEngine(2);
+		try {
+			lse.makeIndex(none.getPath(), "noisewords.txt");
+			segmented.makeIndex(none.getPath(), "noisewords.txt");
+
+			for (int i = 0; i < docFiles.size(); i++) {
+
+				lse.addDocument(docFiles.get(i));
+				segmented.indexDocuments(Arrays.asList(docFiles.get(i)));
+				segmented.awaitMerges();
+
+				if (i == 1) {
+					// the first two documents are in one segment, which keeps the
+					// second one as removed
+					failed += check("removed", "removeDocument", lse.removeDocument(docFiles.get(1)),
+							segmented.removeDocument(docFiles.get(1)));
+					failed += compare(lse, segmented, keywords, "removed, not merged");
+
+				} else if (i == 2) {
+					// the segment of the removed document is merged with the new one
+					failed += check("removed", "segments", 1, segmented.segmentCount());
+					failed += compare(lse, segmented, keywords, "removed, merged");
+				}
+			}
+
+			failed += check("one per batch", "documents", lse.getSnapshot().documentCount(),
+					segmented.documentCount());
+			failed += compare(lse, segmented, keywords, "one per batch, " + segmented.segmentCount() + " segments");
+		} finally {
+			segmented.close();
+			none.delete();
+		}
+
+		System.out.println(failed == 0 ? "all same" : failed + " different");
+		if (failed > 0) {
+			System.exit(1);
+		}
+	}
+
+	// helper, the number of searches that give different results
+	private static int compare(LittleSearchEngine lse, SegmentedSearchEngine segmented, ArrayList<String> keywords,
+			String what) {
+
+		int failed = 0;
+		for (int i = 0; i < keywords.size(); i++) {
+			String kw1 = keywords.get(i);
+			String kw2 = keywords.get((i + 1) % keywords.size());
+			failed += check(what, "top5search " + kw1 + " " + kw2, lse.top5search(kw1, kw2),
+					segmented.top5search(kw1, kw2));
+			failed += check(what, "topKSearch " + kw1, lse.topKSearch(Arrays.asList(kw1), 5),
+					segmented.topKSearch(Arrays.asList(kw1), 5));
+		}
+		for (char c = 'a'; c <= 'z'; c++) {
+			Collection<String> pattern = Arrays.asList(c + "*");
+			failed += check(what, "topKSearch " + pattern, lse.topKSearch(pattern, 10),
+					segmented.topKSearch(pattern, 10));
+		}
+		failed += check(what, "topKSearch of all keywords", lse.topKSearch(keywords, Integer.MAX_VALUE),
+				segmented.topKSearch(keywords, Integer.MAX_VALUE));
+
+		System.out.println(what + ": " + (failed == 0 ? "same" : failed + " different"));
+		return failed;
+	}
+
+	// helper, prints the results of a search that differ, 1 if they do
+	private static int check(String what, String search, Object expected, Object found) {
+
+		if (expected == null ? found == null : expected.equals(found)) {
+			return 0;
+		}
+		System.out.println(what + ", " + search + ": DIFFERENT, LittleSearchEngine " + expected + ", segmented "
+				+ found);
+		return 1;
+	}
+}